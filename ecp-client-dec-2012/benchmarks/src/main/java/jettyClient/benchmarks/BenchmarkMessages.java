@@ -0,0 +1,86 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.benchmarks;
+
+import jettyClient.mock.CannedMessages;
+import jettyClient.objectProviderRegisterer.ObjectProviderRegisterer;
+import jettyClient.parser.SchemaRegistry;
+
+import org.opensaml.core.config.InitializationService;
+
+/**
+ * BenchmarkMessages holds the messages the benchmarks run over: the canned
+ * AuthnRequest envelope of the mock SP and the canned, signed Response
+ * envelope of the mock IdP.
+ * 
+ * The size of a message is set by a count: the number of IDPEntries the SP
+ * lists, and the number of attributes in the IdP assertion.
+ * 
+ * @author carolina
+ * 
+ */
+public class BenchmarkMessages {
+
+	public final static String assertionConsumerURL = "https://sp.example.org/Shibboleth.sso/SAML2/ECP";
+	public final static String idpEcpURL = "https://idp.example.org/idp/profile/SAML2/SOAP/ECP";
+
+	// A metadata file that is shipped with the client.
+	public final static String metadataFile = "resources/metadata/spring-security-testIDP-singleEntitydescriptor.xml";
+
+	private static boolean initialized = false;
+
+	/**
+	 * Initialize OpenSAML, register the PAOS header blocks and compile the
+	 * schemas, as the client does at startup.
+	 * 
+	 * @throws Exception
+	 */
+	public static synchronized void initialize() throws Exception {
+		if (initialized)
+			return;
+
+		InitializationService.initialize();
+		ObjectProviderRegisterer.register();
+		SchemaRegistry.initialize();
+
+		initialized = true;
+	}
+
+	/**
+	 * Return an SP envelope with an AuthnRequest, that lists the given number
+	 * of IdPs.
+	 * 
+	 * @param idpEntries
+	 * @return
+	 */
+	public static byte[] spAuthnRequest(int idpEntries) {
+		return CannedMessages.spAuthnRequest(assertionConsumerURL, idpEcpURL,
+				idpEntries);
+	}
+
+	/**
+	 * Return an IdP envelope with a Response that carries a signed assertion
+	 * with the given number of attributes.
+	 * 
+	 * @param attributes
+	 * @return
+	 * @throws Exception
+	 */
+	public static byte[] idpResponse(int attributes) throws Exception {
+		return CannedMessages.idpResponse(assertionConsumerURL, attributes);
+	}
+}
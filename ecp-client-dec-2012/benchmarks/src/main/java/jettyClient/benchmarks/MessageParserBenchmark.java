@@ -0,0 +1,109 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import jettyClient.EnvelopeHandling.EnvelopeParts;
+import jettyClient.parser.MessageParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opensaml.soap.soap11.Envelope;
+
+/**
+ * Benchmarks for parsing received envelopes into EnvelopeParts, and for
+ * writing an Envelope to bytes before it is sent.
+ * 
+ * @author carolina
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageParserBenchmark {
+
+	// IDPEntries in the AuthnRequest, attributes in the IdP Response.
+	@Param({ "1", "10", "100" })
+	public int size;
+
+	private byte[] spMessage;
+	private byte[] idpMessage;
+
+	private Envelope spEnvelope;
+	private Envelope idpEnvelope;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkMessages.initialize();
+
+		spMessage = BenchmarkMessages.spAuthnRequest(size);
+		idpMessage = BenchmarkMessages.idpResponse(size);
+
+		spEnvelope = MessageParser.parseMessageToEnvelope(spMessage);
+		idpEnvelope = MessageParser.parseMessageToEnvelope(idpMessage);
+	}
+
+	@Benchmark
+	public EnvelopeParts parseAuthnRequest() {
+		return MessageParser.parseMessage(spMessage);
+	}
+
+	@Benchmark
+	public EnvelopeParts parseResponse() {
+		return MessageParser.parseMessage(idpMessage);
+	}
+
+	/**
+	 * Write a parsed Envelope, which still has its cached DOM.
+	 */
+	@Benchmark
+	public ByteArrayOutputStream authnRequestToStream() {
+		return MessageParser.envelopeToStream(spEnvelope);
+	}
+
+	/**
+	 * Write a parsed Envelope, which still has its cached DOM.
+	 */
+	@Benchmark
+	public ByteArrayOutputStream responseToStream() {
+		return MessageParser.envelopeToStream(idpEnvelope);
+	}
+
+	/**
+	 * Marshall and write an Envelope that has no cached DOM.
+	 */
+	@Benchmark
+	public ByteArrayOutputStream responseToStreamWithoutDOM() {
+		idpEnvelope.releaseDOM();
+		idpEnvelope.releaseChildrenDOM(true);
+		return MessageParser.envelopeToStream(idpEnvelope);
+	}
+}
@@ -0,0 +1,69 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import jettyClient.metadata.LoadFile;
+import jettyClient.parser.ByteBufferInputStream;
+import jettyClient.parser.EcpEndpoint;
+import jettyClient.parser.MetadataStreamReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for reading the ECP endpoint from IdP metadata, as the
+ * MetadataIndex does for every new or changed file in the metadata folder.
+ * The file is loaded once, so only the parsing is measured.
+ * 
+ * @author carolina
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataStreamReaderBenchmark {
+
+	private ByteBuffer metadata;
+
+	@Setup
+	public void setup() throws Exception {
+		BenchmarkMessages.initialize();
+		metadata = LoadFile.readBytes(BenchmarkMessages.metadataFile);
+	}
+
+	@Benchmark
+	public List<EcpEndpoint> read() throws XMLStreamException {
+		return MetadataStreamReader.read(new ByteBufferInputStream(metadata));
+	}
+}
@@ -19,18 +19,23 @@ package jettyClient.EnvelopeHandling;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 
+import jettyClient.metrics.Metrics;
+import jettyClient.metrics.Timer;
 import jettyClient.parser.ParseHelper;
 import jettyClient.simpleClient.ClientConfiguration;
-import net.shibboleth.utilities.java.support.xml.ElementSupport;
 
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.soap.soap11.Body;
 import org.opensaml.soap.soap11.Envelope;
 import org.opensaml.soap.soap11.Fault;
 import org.opensaml.soap.soap11.FaultCode;
+import org.opensaml.soap.soap11.Header;
 import org.opensaml.soap.util.SOAPHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
 
 
 public class EnvelopeCreator {
@@ -38,6 +43,16 @@ public class EnvelopeCreator {
 	// Get the client logger
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
+
+	// Time spent building each kind of envelope.
+	private final static Timer idpEnvelopeTimer = Metrics.timer(
+			"ecp_envelope_create", "envelope", "idp");
+	private final static Timer spResponseEnvelopeTimer = Metrics.timer(
+			"ecp_envelope_create", "envelope", "sp_response");
+	private final static Timer soapFaultTimer = Metrics.timer(
+			"ecp_envelope_create", "envelope", "soap_fault");
+	private final static Timer partsTimer = Metrics.timer(
+			"ecp_envelope_create", "envelope", "parts");
 	
 	/**
 	 * Return an IdP Envelope (Header = null, Body = AuthnRequest from SP).
@@ -45,17 +60,29 @@ public class EnvelopeCreator {
 	 * Creates a new Envelope to be sent to the IdP and adds the same
 	 * AuthnRequest element that is stored in the body of the SP envelope.
 	 * 
+	 * The Body object is moved into the new Envelope as it is. Its DOM is
+	 * re-parented when the Envelope is marshalled, so the AuthnRequest is
+	 * never marshalled or unmarshalled again.
+	 * 
 	 * @param envelopeParts
-	 * @return An envelope with an AuthnRequest addressed for the IdP.
+	 * @return An envelope with an AuthnRequest addressed for the IdP, or null
+	 *         if there was no Body or it could not be moved.
 	 */
 	public static Envelope createIdpEnvelope(EnvelopeParts envelopeParts) {
 
-		Element envelopeElement = ParseHelper.marshall(buildEnvelope());
-		Element bodyElement = ParseHelper.marshall(envelopeParts.getBody());
+		long start = System.nanoTime();
+
+		Body body = detach(envelopeParts.getBody());
+
+		if (body == null) {
+			logger.debug("No Body for the IdP envelope.");
+			return null;
+		}
 
-		ElementSupport.appendChildElement(envelopeElement, bodyElement);
-		Envelope envelope = (Envelope) ParseHelper.unmarshall(envelopeElement);
+		Envelope envelope = buildEnvelope();
+		envelope.setBody(body);
 
+		idpEnvelopeTimer.record(start);
 		return envelope;
 	}
 
@@ -63,18 +90,29 @@ public class EnvelopeCreator {
 	 * Return an envelope that will be returned to the SP (Header = PAOS
 	 * Response, Body = Response that contains an assertion).
 	 * 
+	 * The Body object is moved into the new Envelope as it is, so the signed
+	 * assertion is forwarded without rebuilding it.
+	 * 
 	 * @param envelopeParts
-	 * @return An envelope addressed for the SP.
+	 * @return An envelope addressed for the SP, or null if there was no Body
+	 *         or it could not be moved.
 	 */
 	public static Envelope createSpResponseEnvelope(Body body) {
 
-		Element envelopeElement = ParseHelper.marshall(buildEnvelope());
-		Element bodyElement = ParseHelper.marshall(body);
+		long start = System.nanoTime();
+
+		Body detached = detach(body);
 
-		ElementSupport.appendChildElement(envelopeElement, bodyElement);
+		if (detached == null) {
+			logger.debug("No Body for the SP response envelope.");
+			return null;
+		}
 
-		Envelope envelope = (Envelope) ParseHelper.unmarshall(envelopeElement);
+		Envelope envelope = buildEnvelope();
 		envelope.setHeader(HeaderCreator.buildEcpToSpHeader()); // set PAOS header
+		envelope.setBody(detached);
+
+		spResponseEnvelopeTimer.record(start);
 		return envelope;
 	}
 
@@ -86,12 +124,15 @@ public class EnvelopeCreator {
 	 * @return A SOAP Body that contains a SOAP fault.
 	 */
 	public static Body createSoapFaultBody(String faultString) {
+		long start = System.nanoTime();
+
 		Fault fault = SOAPHelper.buildSOAP11Fault(FaultCode.CLIENT,
 				faultString, null, null, null);
 
 		Body body = (Body) ParseHelper.buildObject(Body.DEFAULT_ELEMENT_NAME);
 		body.getUnknownXMLObjects().add(fault);
 
+		soapFaultTimer.record(start);
 		return body;
 	}
 
@@ -109,24 +150,55 @@ public class EnvelopeCreator {
 	 * Turn responseParts into an envelope.
 	 * 
 	 * @param responseParts
-	 * @return An envelope constructed out of the envelope parts.
+	 * @return An envelope constructed out of the envelope parts, or null if a
+	 *         part could not be moved into it.
 	 */
 
 	public static Envelope partsToEnvelope(EnvelopeParts envelopeParts) {
 
-		Element envelopeElement = ParseHelper.marshall(envelopeParts
-				.getEnvelope());
-		Element bodyElement = ParseHelper.marshall(envelopeParts.getBody());
-		Element headerElement = ParseHelper.marshall(envelopeParts.getHeader());
+		long start = System.nanoTime();
+
+		Envelope envelope = envelopeParts.getEnvelope();
+		Header header = detach(envelopeParts.getHeader());
+		Body body = detach(envelopeParts.getBody());
 
-		ElementSupport.appendChildElement(envelopeElement, headerElement);
-		ElementSupport.appendChildElement(envelopeElement, bodyElement);
+		if ((header == null && envelopeParts.getHeader() != null)
+				|| (body == null && envelopeParts.getBody() != null)) {
+			logger.debug("Could not rebuild the envelope from its parts.");
+			return null;
+		}
 
-		Envelope envelope = (Envelope) ParseHelper.unmarshall(envelopeElement);
+		envelope.setHeader(header);
+		envelope.setBody(body);
 
+		partsTimer.record(start);
 		return envelope;
 	}
 
+	/**
+	 * Return an XMLObject that can be added to a new parent. An object that
+	 * has no parent is returned as it is. An object that already belongs to
+	 * another Envelope is cloned, so that both Envelopes stay intact.
+	 * 
+	 * @param xmlObject
+	 * @return The object, a clone of it, or null if it could not be cloned.
+	 */
+	private static <T extends XMLObject> T detach(T xmlObject) {
+
+		if (xmlObject == null || xmlObject.hasParent() == false)
+			return xmlObject;
+
+		try {
+			return XMLObjectSupport.cloneXMLObject(xmlObject);
+		} catch (MarshallingException e) {
+			logger.debug("Could not marshall " + xmlObject.getElementQName());
+		} catch (UnmarshallingException e) {
+			logger.debug("Could not unmarshall "
+					+ xmlObject.getElementQName());
+		}
+		return null;
+	}
+
 	/**
 	 * Generates a random String value.
 	 * 
@@ -0,0 +1,184 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.EnvelopeHandling;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import jettyClient.parser.HeaderFields;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.soap.soap11.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RelayEnvelope builds the Envelopes the ECP forwards (AuthnRequest to the
+ * IdP, Response to the SP) as bytes, without building any OpenSAML objects.
+ * 
+ * The soap11:Body element is sliced out of the received message at the byte
+ * range the HeaderScanner located it at, and spliced, unchanged, into a pre-serialized Envelope that declares
+ * the same namespaces as the received Envelope. Since the Body bytes are
+ * copied exactly, signatures inside it stay intact.
+ * 
+ * Only messages in UTF-8 (or US-ASCII) can be relayed.
+ * 
+ * @author carolina
+ * 
+ */
+public class RelayEnvelope {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+	private final static String SOAP_ACTOR_NEXT = "http://schemas.xmlsoap.org/soap/actor/next";
+
+	/**
+	 * Return an IdP Envelope (no Header, Body = AuthnRequest from SP) as
+	 * bytes.
+	 * 
+	 * @param spMessage
+	 *            The message the SP sent.
+	 * @param spFields
+	 *            The header fields scanned from the SP message.
+	 * @return An envelope with an AuthnRequest addressed for the IdP, or null
+	 *         if the Body could not be sliced out of the message.
+	 */
+	public static byte[] createIdpEnvelope(byte[] spMessage,
+			HeaderFields spFields) {
+		return relay(spMessage, spFields, false);
+	}
+
+	/**
+	 * Return an Envelope (Header = PAOS Response, Body = Response from the
+	 * IdP) that will be sent to the SP, as bytes.
+	 * 
+	 * @param idpMessage
+	 *            The message the IdP sent.
+	 * @param idpFields
+	 *            The header fields scanned from the IdP message.
+	 * @return An envelope addressed for the SP, or null if the Body could not
+	 *         be sliced out of the message.
+	 */
+	public static byte[] createSpResponseEnvelope(byte[] idpMessage,
+			HeaderFields idpFields) {
+		return relay(idpMessage, idpFields, true);
+	}
+
+	/**
+	 * Splice the Body of a message into a new Envelope.
+	 * 
+	 * @param message
+	 * @param fields
+	 * @param paosResponseHeader
+	 *            Add a Header with a PAOS Response header block.
+	 * @return
+	 */
+	private static byte[] relay(byte[] message, HeaderFields fields,
+			boolean paosResponseHeader) {
+
+		if (message == null || fields == null || fields.getBodyPrefix() == null)
+			return null;
+
+		if (isUtf8(fields.getEncoding()) == false) {
+			logger.debug("Can not relay a message in encoding "
+					+ fields.getEncoding());
+			return null;
+		}
+
+		int start = fields.getBodyStart();
+		int end = fields.getBodyEnd();
+
+		if (start < 0 || end > message.length || end <= start) {
+			logger.debug("Could not find the Body in the message.");
+			return null;
+		}
+
+		String envelopeName = qualify(fields.getEnvelopePrefix(),
+				Envelope.DEFAULT_ELEMENT_LOCAL_NAME);
+
+		StringBuilder head = new StringBuilder(512);
+		head.append(XML_DECLARATION).append('<').append(envelopeName);
+
+		for (Map.Entry<String, String> namespace : fields
+				.getEnvelopeNamespaces().entrySet()) {
+			head.append(" xmlns");
+			if (namespace.getKey().length() > 0)
+				head.append(':').append(namespace.getKey());
+			head.append("=\"").append(escape(namespace.getValue()))
+					.append('"');
+		}
+		head.append('>');
+
+		if (paosResponseHeader)
+			head.append(paosResponseHeader(fields.getEnvelopePrefix()));
+
+		byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] tailBytes = ("</" + envelopeName + ">")
+				.getBytes(StandardCharsets.UTF_8);
+
+		ByteArrayOutputStream envelope = new ByteArrayOutputStream(
+				headBytes.length + (end - start) + tailBytes.length);
+		envelope.write(headBytes, 0, headBytes.length);
+		envelope.write(message, start, end - start);
+		envelope.write(tailBytes, 0, tailBytes.length);
+
+		return envelope.toByteArray();
+	}
+
+	/**
+	 * A Header with the PAOS Response header block the ECP sends to the SP, as
+	 * specified in sstc-saml-ecp-v2.0-wd02 section 4.2.4.5. Same content as
+	 * HeaderCreator.buildEcpToSpHeader().
+	 * 
+	 * @param envelopePrefix
+	 * @return
+	 */
+	private static String paosResponseHeader(String envelopePrefix) {
+		return "<" + qualify(envelopePrefix, "Header") + ">"
+				+ "<paos:Response xmlns:paos=\"" + SAMLConstants.PAOS_NS
+				+ "\" xmlns:soap11=\"" + SAMLConstants.SOAP11ENV_NS
+				+ "\" soap11:actor=\"" + SOAP_ACTOR_NEXT
+				+ "\" soap11:mustUnderstand=\"1\"/>" + "</"
+				+ qualify(envelopePrefix, "Header") + ">";
+	}
+
+	private static String qualify(String prefix, String localName) {
+		return prefix.length() == 0 ? localName : prefix + ":" + localName;
+	}
+
+	private static boolean isUtf8(String encoding) {
+		return encoding == null || encoding.equalsIgnoreCase("UTF-8")
+				|| encoding.equalsIgnoreCase("UTF8")
+				|| encoding.equalsIgnoreCase("US-ASCII");
+	}
+
+	/**
+	 * Escape a namespace URI for use in an attribute value.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;")
+				.replace("\"", "&quot;");
+	}
+}
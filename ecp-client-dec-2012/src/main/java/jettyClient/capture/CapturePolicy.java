@@ -0,0 +1,276 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.capture;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CapturePolicy decides which SOAP messages are captured to the message log,
+ * and removes sensitive values from the ones that are.
+ * 
+ * A message is captured if it is the n:th message since the last sampled one
+ * and fewer than the maximum number of messages have been captured during
+ * the current second. The content of the redacted elements (signature
+ * values, certificates, NameIDs, attribute values...) is replaced, so that
+ * the logs do not hold credentials or personal data.
+ * 
+ * Messages are redacted on a StAX pass. Everything inside a redacted element
+ * is dropped, child elements, comments and CDATA sections included. A
+ * message that is not well-formed XML is not logged at all.
+ * 
+ * @author carolina
+ * 
+ */
+public class CapturePolicy {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Configured once; creating readers and writers from them is thread-safe.
+	private final static XMLInputFactory inputFactory = createInputFactory();
+	private final static XMLOutputFactory outputFactory = XMLOutputFactory
+			.newInstance();
+	private final static XMLEventFactory eventFactory = XMLEventFactory
+			.newInstance();
+
+	private final static String redactedText = "[redacted]";
+
+	private final int sampleEvery;
+	private final int maxPerSecond;
+
+	// Local names of the redacted elements.
+	private final Set<String> redacted;
+
+	// Messages seen since the last sampled one.
+	private int seen = 0;
+
+	// Start of the current one second window, and messages captured in it.
+	private long windowStart = 0;
+	private int captured = 0;
+
+	// Messages dropped by the rate limit since the last captured one.
+	private long dropped = 0;
+
+	/**
+	 * Constructor. Uses the defaults from the ClientConfiguration.
+	 */
+	public CapturePolicy() {
+		this(ClientConfiguration.captureSampleEvery,
+				ClientConfiguration.captureMaxPerSecond,
+				ClientConfiguration.captureRedactedElements);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sampleEvery
+	 *            Capture one message in this many (1 = every message).
+	 * @param maxPerSecond
+	 *            Most messages captured per second.
+	 * @param redactedElements
+	 *            Local names of the elements whose content is redacted.
+	 */
+	public CapturePolicy(int sampleEvery, int maxPerSecond,
+			String[] redactedElements) {
+		this.sampleEvery = Math.max(1, sampleEvery);
+		this.maxPerSecond = maxPerSecond;
+		this.redacted = redactedElements == null ? Collections
+				.<String> emptySet() : new HashSet<String>(
+				Arrays.asList(redactedElements));
+	}
+
+	/**
+	 * Returns true if the next message should be captured.
+	 * 
+	 * @return
+	 */
+	public synchronized boolean sample() {
+
+		if (++seen < sampleEvery)
+			return false;
+		seen = 0;
+
+		long now = System.currentTimeMillis();
+
+		if (now - windowStart >= 1000) {
+			windowStart = now;
+			captured = 0;
+		}
+
+		if (captured >= maxPerSecond) {
+			dropped++;
+			return false;
+		}
+		captured++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of messages dropped by the rate limit since the last
+	 * call, and resets it.
+	 * 
+	 * @return
+	 */
+	public synchronized long takeDropped() {
+		long count = dropped;
+		dropped = 0;
+		return count;
+	}
+
+	/**
+	 * Replace the content of the redacted elements, keeping their tags and
+	 * attributes.
+	 * 
+	 * @param message
+	 * @return The redacted message, or a note in its place if it could not be
+	 *         parsed.
+	 */
+	public String redact(String message) {
+
+		if (redacted.isEmpty())
+			return message;
+
+		StringWriter out = new StringWriter(message.length());
+		XMLEventReader reader = null;
+		XMLEventWriter writer = null;
+
+		try {
+			reader = inputFactory
+					.createXMLEventReader(new StringReader(message));
+			writer = outputFactory.createXMLEventWriter(out);
+			copy(reader, writer);
+			writer.flush();
+		} catch (XMLStreamException e) {
+			logger.debug("Could not redact a captured message: "
+					+ e.getMessage());
+			return "[not well-formed XML, " + message.length()
+					+ " characters not logged]";
+		} finally {
+			close(reader, writer);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Copy a message event by event, leaving out the content of the redacted
+	 * elements.
+	 * 
+	 * @param reader
+	 * @param writer
+	 * @throws XMLStreamException
+	 */
+	private void copy(XMLEventReader reader, XMLEventWriter writer)
+			throws XMLStreamException {
+
+		while (reader.hasNext()) {
+			XMLEvent event = reader.nextEvent();
+
+			if (event.isStartDocument() || event.isEndDocument())
+				continue;
+
+			writer.add(event);
+
+			if (event.isStartElement()
+					&& redacted.contains(event.asStartElement().getName()
+							.getLocalPart())) {
+				skipContent(reader);
+				writer.add(eventFactory.createCharacters(redactedText));
+				writer.add(reader.nextEvent()); // The end element.
+			}
+		}
+	}
+
+	/**
+	 * Skip the content of the current element, up to its end element.
+	 * 
+	 * @param reader
+	 * @throws XMLStreamException
+	 */
+	private static void skipContent(XMLEventReader reader)
+			throws XMLStreamException {
+
+		int depth = 0;
+
+		while (reader.hasNext()) {
+			XMLEvent next = reader.peek();
+
+			if (next.isEndElement() && depth == 0)
+				return;
+
+			reader.nextEvent();
+
+			if (next.isStartElement())
+				depth++;
+			else if (next.isEndElement())
+				depth--;
+		}
+		throw new XMLStreamException("Unexpected end of the message.");
+	}
+
+	/**
+	 * Create a namespace aware StAX factory that does not resolve DTDs or
+	 * external entities.
+	 * 
+	 * @return
+	 */
+	private static XMLInputFactory createInputFactory() {
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+
+		return factory;
+	}
+
+	/**
+	 * Close a reader and a writer, if there are any.
+	 * 
+	 * @param reader
+	 * @param writer
+	 */
+	private static void close(XMLEventReader reader, XMLEventWriter writer) {
+		try {
+			if (reader != null)
+				reader.close();
+			if (writer != null)
+				writer.close();
+		} catch (XMLStreamException e) {
+			logger.debug("Could not close the XML reader or writer.");
+		}
+	}
+}
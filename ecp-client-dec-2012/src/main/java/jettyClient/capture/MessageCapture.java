@@ -0,0 +1,154 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.capture;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import jettyClient.parser.ParseHelper;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.opensaml.core.xml.XMLObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MessageCapture logs the SOAP messages the client sends and receives to the
+ * message logger (see ClientConfiguration.messageLogger).
+ * 
+ * Nothing is decoded, marshalled or formatted unless the message logger is
+ * at DEBUG and the CapturePolicy samples the message, so capturing costs
+ * next to nothing when it is off or rate limited. Captured messages are
+ * redacted before they are logged. logback.xml writes them through an
+ * AsyncAppender, so the logging thread does not wait for the disk.
+ * 
+ * @author carolina
+ * 
+ */
+public class MessageCapture {
+
+	// Message logger
+	private final static Logger messageLogger = LoggerFactory
+			.getLogger(ClientConfiguration.messageLogger);
+
+	private static volatile CapturePolicy policy = new CapturePolicy();
+
+	/**
+	 * Replace the capture policy.
+	 * 
+	 * @param capturePolicy
+	 */
+	public static void setPolicy(CapturePolicy capturePolicy) {
+		policy = capturePolicy;
+	}
+
+	/**
+	 * Capture a message sent to an endpoint.
+	 * 
+	 * @param destination
+	 * @param message
+	 *            The serialized message (UTF-8).
+	 */
+	public static void sent(String destination, byte[] message) {
+		if (isCaptured())
+			log("Sent to " + destination, decode(message));
+	}
+
+	/**
+	 * Capture a message sent to an endpoint, read from a buffer. The buffer's
+	 * position is not changed.
+	 * 
+	 * @param destination
+	 * @param message
+	 *            The sent message (UTF-8), or null.
+	 */
+	public static void sent(String destination, ByteBuffer message) {
+		if (isCaptured())
+			log("Sent to " + destination, decode(message));
+	}
+
+	/**
+	 * Capture a message received from an endpoint.
+	 * 
+	 * @param source
+	 * @param message
+	 *            The received message (UTF-8).
+	 */
+	public static void received(String source, byte[] message) {
+		if (isCaptured())
+			log("Received from " + source, decode(message));
+	}
+
+	/**
+	 * Capture a message received from an endpoint, read from a buffer. The
+	 * buffer's position is not changed.
+	 * 
+	 * @param source
+	 * @param message
+	 *            The received message (UTF-8), or null.
+	 */
+	public static void received(String source, ByteBuffer message) {
+		if (isCaptured())
+			log("Received from " + source, decode(message));
+	}
+
+	/**
+	 * Capture an object received from an endpoint. It is only marshalled if
+	 * it is captured.
+	 * 
+	 * @param source
+	 * @param object
+	 */
+	public static void received(String source, XMLObject object) {
+		if (isCaptured())
+			log("Received from " + source,
+					ParseHelper.anythingToXMLString(object));
+	}
+
+	/**
+	 * Returns true if the next message should be captured.
+	 * 
+	 * @return
+	 */
+	private static boolean isCaptured() {
+		return messageLogger.isDebugEnabled() && policy.sample();
+	}
+
+	private static void log(String title, String message) {
+
+		CapturePolicy current = policy;
+		long dropped = current.takeDropped();
+
+		if (dropped > 0)
+			messageLogger.debug(dropped
+					+ " messages were not captured (rate limit).");
+
+		messageLogger.debug(title + ":\n" + current.redact(message));
+	}
+
+	private static String decode(byte[] message) {
+		if (message == null)
+			return "";
+		return new String(message, StandardCharsets.UTF_8);
+	}
+
+	private static String decode(ByteBuffer message) {
+		if (message == null)
+			return "";
+		return StandardCharsets.UTF_8.decode(message.duplicate()).toString();
+	}
+}
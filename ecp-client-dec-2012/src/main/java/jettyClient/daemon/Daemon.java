@@ -0,0 +1,166 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.daemon;
+
+import jettyClient.metadata.IdpMetadata;
+import jettyClient.metadata.MetadataWatcher;
+import jettyClient.metrics.MetricsMBean;
+import jettyClient.objectProviderRegisterer.ObjectProviderRegisterer;
+import jettyClient.parser.SchemaRegistry;
+import jettyClient.simpleClient.Client;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Daemon runs the client as a long-lived service, so that OpenSAML, the
+ * schemas, the IdP metadata and the connection pool are set up once instead
+ * of once per login.
+ * 
+ * The metadata folder is watched, and IdPs that are added or changed are
+ * picked up without a restart or dropping logins in progress.
+ * 
+ * The daemon listens on the loopback interface only. See SessionHandler for
+ * the API. The timers and counters of every hop are served by MetricsHandler
+ * and registered over JMX.
+ * 
+ * Usage: java -cp simpleClient.jar jettyClient.daemon.Daemon [port] [-trace]
+ * 
+ * With -trace, every login is traced to ClientConfiguration.traceFile.
+ * 
+ * @author carolina
+ * 
+ */
+public class Daemon {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final Server server = new Server();
+	private final Client client = new Client();
+	private final IdpMetadata idpMetadata = new IdpMetadata();
+	private final MetadataWatcher metadataWatcher = new MetadataWatcher(
+			idpMetadata);
+
+	/**
+	 * Constructor. Sets up the server.
+	 * 
+	 * @param port
+	 */
+	public Daemon(int port) {
+		this(port, false);
+	}
+
+	/**
+	 * Constructor. Sets up the server.
+	 * 
+	 * @param port
+	 * @param trace
+	 *            Trace every login.
+	 */
+	public Daemon(int port, boolean trace) {
+
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setHost(ClientConfiguration.daemonHost);
+		connector.setPort(port);
+		server.addConnector(connector);
+
+		SessionHandler sessionHandler = new SessionHandler(client, idpMetadata);
+		sessionHandler.setTrace(trace);
+
+		HandlerList handlers = new HandlerList();
+		handlers.setHandlers(new Handler[] { sessionHandler,
+				new MetricsHandler() });
+		server.setHandler(handlers);
+	}
+
+	/**
+	 * Register the metrics, load the IdP metadata, start watching it and
+	 * start the server.
+	 * 
+	 * @throws Exception
+	 */
+	public void start() throws Exception {
+		MetricsMBean.register();
+		metadataWatcher.start();
+		server.start();
+		logger.info("Daemon listening on " + ClientConfiguration.daemonHost
+				+ ":" + server.getConnectors()[0].getLocalPort());
+	}
+
+	/**
+	 * Stop accepting requests and close the pooled connections.
+	 */
+	public void stop() {
+		metadataWatcher.stop();
+		try {
+			server.stop();
+		} catch (Exception e) {
+			logger.debug("Could not stop the daemon server.");
+		}
+		client.stop();
+	}
+
+	public void join() throws InterruptedException {
+		server.join();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int port = ClientConfiguration.daemonPort;
+		boolean trace = false;
+
+		for (String arg : args) {
+			if (arg.equals("-trace"))
+				trace = true;
+			else
+				port = Integer.parseInt(arg);
+		}
+
+		// Initialize and configure OpenSAML (Builderfactory, Marshaller...)
+		try {
+			InitializationService.initialize();
+		} catch (InitializationException e) {
+			logger.debug("Could not initialize OpenSAML.\n" + e);
+		}
+
+		// Register PAOS request header builder + marshaller.
+		ObjectProviderRegisterer.register();
+
+		// Compile the XML schemas once, for every exchange to share.
+		SchemaRegistry.initialize();
+
+		final Daemon daemon = new Daemon(port, trace);
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				daemon.stop();
+			}
+		});
+
+		daemon.start();
+		daemon.join();
+	}
+}
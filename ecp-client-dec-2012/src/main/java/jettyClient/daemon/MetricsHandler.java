@@ -0,0 +1,66 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.daemon;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jettyClient.metrics.PrometheusFormat;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * MetricsHandler serves the timers and counters of the client.
+ * 
+ * GET /metrics returns them in the Prometheus text format, so a Prometheus
+ * server can scrape the daemon.
+ * 
+ * @author carolina
+ * 
+ */
+public class MetricsHandler extends AbstractHandler {
+
+	public final static String metricsPath = "/metrics";
+
+	public void handle(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+
+		if (!metricsPath.equals(target))
+			return; // Not handled, the server answers 404.
+
+		baseRequest.setHandled(true);
+
+		if (!"GET".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+
+		byte[] text = PrometheusFormat.write()
+				.getBytes(StandardCharsets.UTF_8);
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(PrometheusFormat.contentType);
+		response.setContentLength(text.length);
+		response.getOutputStream().write(text);
+	}
+}
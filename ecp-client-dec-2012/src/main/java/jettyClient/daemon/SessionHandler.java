@@ -0,0 +1,264 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.daemon;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import jettyClient.metadata.IdpMetadata;
+import jettyClient.paosClient.PaosClient;
+import jettyClient.parser.ParseHelper;
+import jettyClient.simpleClient.Client;
+import jettyClient.simpleClient.ClientConfiguration;
+import jettyClient.simpleClient.ClientOptions;
+import jettyClient.simpleClient.Connections;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.opensaml.soap.soap11.Body;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SessionHandler serves the daemon API.
+ * 
+ * GET /session?sp=<SP URL>&idp=<IdP id> logs in at the SP through the IdP,
+ * with the HTTP BASIC credentials of the request passed through to the IdP.
+ * The response holds the SOAP Body the IdP returned, as XML, and the SP
+ * session cookies in an X-SP-Cookie header.
+ * 
+ * Logins are cached, so a second request for the same SP, IdP and user
+ * reuses the SP session while it is valid. A cached session is only served
+ * to a request with the same password as the login that created it, and
+ * every request gets its own copy of the Body and the cookies.
+ * 
+ * @author carolina
+ * 
+ */
+public class SessionHandler extends AbstractHandler {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	public final static String sessionPath = "/session";
+	public final static String cookieHeader = "X-SP-Cookie";
+
+	private final Client client;
+	private final IdpMetadata metadata;
+	private boolean trace = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param client
+	 *            The client every login goes through.
+	 * @param metadata
+	 *            The registered IdPs.
+	 */
+	public SessionHandler(Client client, IdpMetadata metadata) {
+		this.client = client;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Trace every login to ClientConfiguration.traceFile.
+	 * 
+	 * @param trace
+	 */
+	public void setTrace(boolean trace) {
+		this.trace = trace;
+	}
+
+	public void handle(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+
+		if (!sessionPath.equals(target))
+			return; // Not handled, the server answers 404.
+
+		baseRequest.setHandled(true);
+
+		if (!"GET".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+
+		URL spURL = request.getParameter("sp") != null ? getURL(request
+				.getParameter("sp")) : null;
+		String idpID = request.getParameter("idp");
+
+		if (spURL == null || idpID == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"Parameters sp and idp are required.");
+			return;
+		}
+
+		IDPEntry idpEntry = metadata.getEntry(idpID);
+
+		if (idpEntry == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"No IdP found matching id " + idpID + ".");
+			return;
+		}
+
+		String[] credentials = readCredentials(request
+				.getHeader("Authorization"));
+
+		if (credentials == null) {
+			response.setHeader("WWW-Authenticate",
+					"Basic realm=\"IdP credentials\"");
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+
+		login(spURL, idpEntry, credentials[0], credentials[1], response);
+	}
+
+	/**
+	 * Log in and write the IdP response and the SP session cookies.
+	 * 
+	 * @param spURL
+	 * @param idpEntry
+	 * @param principal
+	 * @param password
+	 * @param response
+	 * @throws IOException
+	 */
+	private void login(URL spURL, IDPEntry idpEntry, String principal,
+			String password, HttpServletResponse response) throws IOException {
+
+		ClientOptions options = new ClientOptions();
+		options.setSpURL(spURL);
+		options.setIdpID(idpEntry.getProviderID());
+		options.setTrace(trace);
+
+		HttpClient httpClient = client.getHttpClient(options);
+		Connections connections = new Connections(client.getSessionCache());
+
+		Body body = connections.accessResource(options, idpEntry, httpClient,
+				principal, password);
+
+		if (body == null) {
+			logger.debug("Daemon login as " + principal + " at " + spURL
+					+ " failed.");
+			response.sendError(HttpServletResponse.SC_BAD_GATEWAY,
+					"The login did not complete.");
+			return;
+		}
+
+		// Marshal a copy, so that no XMLObject is marshalled by two requests.
+		Body copy = copy(body);
+
+		if (copy == null) {
+			response.sendError(HttpServletResponse.SC_BAD_GATEWAY,
+					"The IdP response could not be read.");
+			return;
+		}
+
+		byte[] xml = ParseHelper.anythingToXMLString(copy).getBytes(
+				StandardCharsets.UTF_8);
+
+		// A SOAP fault from the IdP is passed on, but not as a success.
+		if (PaosClient.containsSoapFault(body))
+			response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+		else
+			response.setStatus(HttpServletResponse.SC_OK);
+
+		String cookies = connections.getCookieJar().getCookieHeader(spURL);
+		if (cookies != null)
+			response.setHeader(cookieHeader, cookies);
+
+		response.setContentType("text/xml; charset=UTF-8");
+		response.setContentLength(xml.length);
+		response.getOutputStream().write(xml);
+	}
+
+	/**
+	 * Returns a deep copy of a Body, or null if it could not be copied.
+	 * 
+	 * @param body
+	 * @return
+	 */
+	private Body copy(Body body) {
+		try {
+			return XMLObjectSupport.cloneXMLObject(body);
+		} catch (MarshallingException e) {
+			logger.debug("Could not marshall the IdP response.");
+		} catch (UnmarshallingException e) {
+			logger.debug("Could not unmarshall the IdP response.");
+		}
+		return null;
+	}
+
+	/**
+	 * Attempts to create an URL from the sp parameter. An URL without a port
+	 * is sent to the default port of its scheme (see PaosClient.setEndpoint).
+	 * 
+	 * @param string
+	 * @return The URL, or null if the string is not a valid URL.
+	 */
+	private URL getURL(String string) {
+		try {
+			return new URL(string);
+		} catch (MalformedURLException e) {
+			logger.debug("Malformed SP URL: " + string);
+		}
+		return null;
+	}
+
+	/**
+	 * Read the principal and password from a HTTP BASIC Authorization header.
+	 * 
+	 * @param authorization
+	 * @return { principal, password }, or null if there were none.
+	 */
+	private String[] readCredentials(String authorization) {
+
+		if (authorization == null || !authorization.startsWith("Basic "))
+			return null;
+
+		String decoded;
+		try {
+			decoded = new String(Base64.getDecoder().decode(
+					authorization.substring(6).trim()),
+					StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		int colon = decoded.indexOf(':');
+
+		if (colon < 1)
+			return null;
+
+		return new String[] { decoded.substring(0, colon),
+				decoded.substring(colon + 1) };
+	}
+}
@@ -15,90 +15,63 @@
  * ***************************************************************************/
 package jettyClient.metadata;
 
-import java.io.File;
 import java.util.HashMap;
 
-import jettyClient.parser.MetadataParser;
 import jettyClient.simpleClient.ClientConfiguration;
 
 import org.opensaml.saml.saml2.core.IDPEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * IdpMetadata holds the IdPs registered with this client, read from the
+ * metadata folder through the MetadataIndex.
+ * 
+ * Only the index is kept in memory. The IDPEntry of an IdP is built from its
+ * index entry when it is asked for, so a lookup does not depend on the
+ * number of registered IdPs, and every caller gets an entry of its own.
+ * reload() brings the index up to date without blocking lookups; the index
+ * only re-parses files that changed, and a MetadataWatcher can call reload()
+ * whenever the metadata folder changes. A login in progress keeps the entry
+ * it already has.
+ * 
+ * The index is first brought up to date the first time an IdP is asked for.
+ * 
+ * @author carolina
+ * 
+ */
 public class IdpMetadata {
 
 	private final String metadataFolder = ClientConfiguration.metadataFolder;
 
-	private HashMap<String, IDPEntry> idpList;
+	private final MetadataIndex index = new MetadataIndex(metadataFolder,
+			ClientConfiguration.metadataIndexFile);
+
+	private volatile boolean loaded = false;
 
 	// Client logger
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 
 	/**
-	 * Register an idp from the given file.
-	 * 
-	 * (Load a list of IdP's from a given location.)
-	 * 
-	 * @param idpMetadataFile
+	 * Constructor. No metadata is read until an IdP is asked for.
 	 */
 	public IdpMetadata() {
-		idpList = loadIdentityProviderList(metadataFolder);
 	}
 
 	/**
-	 * Attempt to create a list of IdPs registered with this client.
+	 * Returns the entry of the IdP with the given id, or null if no metadata
+	 * file registers an ECP endpoint for it.
 	 * 
-	 * @param idpMetadataFile
+	 * @param idpID
 	 * @return
 	 */
-	private HashMap<String, IDPEntry> loadIdentityProviderList(
-			String metadataFolder) {
+	public IDPEntry getEntry(String idpID) {
 
-		IDPEntry entry = null;
-		HashMap<String, IDPEntry> map = new HashMap<String, IDPEntry>();
+		load();
 
-		File folder = new File(metadataFolder);
-
-		if (folder != null) {
-			String[] metadataFiles = folder.list();
-
-			if (metadataFiles != null) {
-				for (String filename : metadataFiles) {
-
-					filename = metadataFolder + "/" + filename; // The "/" can
-																// cause
-																// problems.
-
-					logger.info("Extracting entry from " + filename);
-
-					// Get the idpEntry from a file (since the ECP entry is
-					// everything we need)
-					entry = MetadataParser.extractEntry(filename);
-
-					if (entry != null) {
-						map.put(entry.getProviderID(), entry);
-						logger.info("Added an IdP with ID "
-								+ entry.getProviderID() + " from file: "
-								+ filename);
-					} else {
-						logger.info("Failed to extract IdP endpoint entry from file: "
-								+ filename);
-					}
-				}
-
-				if (map.isEmpty())
-					logger.info("Could not find metadata for any IdentityProvider in folder "
-							+ metadataFolder);
-
-			} else {
-				System.out.println("The IdP metadata folder " + metadataFolder
-						+ " was not found");
-				logger.info("The IdP metadata folder " + metadataFolder
-						+ " was not found");
-			}
-		}
-		return map;
+		IndexedEntity entity = index.get(idpID);
+		return entity != null ? entity.toIdpEntry() : null;
 	}
 
 	/**
@@ -107,7 +80,43 @@ public class IdpMetadata {
 	 * @return
 	 */
 	public HashMap<String, IDPEntry> getIdpList() {
-		return idpList;
+
+		load();
+
+		HashMap<String, IDPEntry> map = new HashMap<String, IDPEntry>();
+
+		for (IndexedEntity entity : index.getEntities())
+			map.put(entity.getEntityID(), entity.toIdpEntry());
+
+		if (map.isEmpty())
+			logger.info("Could not find metadata for any IdentityProvider in folder "
+					+ metadataFolder);
+
+		return map;
 	}
 
+	/**
+	 * Bring the index up to date with the metadata folder. Lookups are not
+	 * blocked while the metadata is parsed.
+	 * 
+	 * @return True if the IdPs changed.
+	 */
+	public synchronized boolean reload() {
+
+		boolean changed = index.refresh();
+		loaded = true;
+
+		if (changed)
+			logger.info("Loaded metadata for " + index.getEntities().size()
+					+ " IdPs.");
+		return changed;
+	}
+
+	/**
+	 * Bring the index up to date, if that has not been done yet.
+	 */
+	private void load() {
+		if (!loaded)
+			reload();
+	}
 }
@@ -0,0 +1,83 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metadata;
+
+import jettyClient.parser.ParseHelper;
+
+import org.opensaml.saml.saml2.core.IDPEntry;
+
+/**
+ * One IdP in the MetadataIndex: its entityID, the metadata file that
+ * registers it and its ECP (SOAP binding) SingleSignOnService location.
+ * 
+ * @author carolina
+ * 
+ */
+public class IndexedEntity {
+
+	// Name given to the IDPEntry of an IdP's ECP endpoint.
+	public final static String ecpEntryName = "ECP";
+
+	private final String entityID;
+	private final String file;
+	private final String ecpLocation;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param entityID
+	 * @param file
+	 *            Name of the metadata file, relative to the metadata folder.
+	 * @param ecpLocation
+	 */
+	public IndexedEntity(String entityID, String file, String ecpLocation) {
+		this.entityID = entityID;
+		this.file = file;
+		this.ecpLocation = ecpLocation;
+	}
+
+	/**
+	 * Build the IDPEntry the client logs in with. No metadata is parsed.
+	 * 
+	 * @return
+	 */
+	public IDPEntry toIdpEntry() {
+
+		IDPEntry entry = (IDPEntry) ParseHelper
+				.buildObject(IDPEntry.DEFAULT_ELEMENT_NAME);
+
+		entry.setProviderID(entityID);
+		entry.setLoc(ecpLocation);
+		entry.setName(ecpEntryName);
+
+		return entry;
+	}
+
+	/* Getters */
+
+	public String getEntityID() {
+		return entityID;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public String getEcpLocation() {
+		return ecpLocation;
+	}
+}
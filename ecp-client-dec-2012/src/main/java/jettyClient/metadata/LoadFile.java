@@ -15,46 +15,101 @@
  * ***************************************************************************/
 package jettyClient.metadata;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 import jettyClient.simpleClient.ClientConfiguration;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reads files as bytes, exactly as they are stored. Line breaks are kept, so
+ * signed metadata and PEM blocks are not changed by loading them.
+ * 
+ * @author carolina
+ * 
+ */
 public class LoadFile {
 	
 	// Get the client logger
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 
+	/**
+	 * Read a file to a ByteBuffer. Files larger than
+	 * ClientConfiguration.mappedFileThreshold are memory-mapped instead of
+	 * copied to the heap.
+	 * 
+	 * Wrap the buffer in a ByteBufferInputStream to parse it. Returns null if
+	 * the file could not be read.
+	 * 
+	 * @param pathname
+	 * @return The contents of the file.
+	 */
+	public static ByteBuffer readBytes(String pathname) {
+
+		Path path = Paths.get(pathname);
+		FileChannel channel = null;
+
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+			long size = channel.size();
+
+			if (size > ClientConfiguration.mappedFileThreshold) {
+				// The mapping stays valid after the channel is closed.
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+
+			return ByteBuffer.wrap(Files.readAllBytes(path));
+		} catch (NoSuchFileException e) {
+			logger.debug("File " + pathname + " not found.");
+		} catch (IOException e) {
+			logger.debug("Could not read file " + pathname + ".");
+		} finally {
+			close(channel);
+		}
+		return null;
+	}
 
 	/**
-	 * Read data from a file to a String.
+	 * Read data from a file to a String (UTF-8). Line breaks are kept.
+	 * 
+	 * Returns an empty String if the file could not be read.
+	 * 
 	 * @param pathname
 	 * @return
 	 */
 	public static String read(String pathname) {
 
-			File file = new File(pathname);
-			FileInputStream fos = null;
-			Scanner scanner = null;
-			String text = "";
-			
-			try {
-				fos = new FileInputStream(file);
-			} catch (FileNotFoundException e) {
-				logger.debug("File " +pathname +" not found.");
-				return "";
-			}
-			
-			scanner = new Scanner(fos);			
-			while(scanner.hasNextLine()) text +=scanner.nextLine();
-					
-		return text;
+		ByteBuffer bytes = readBytes(pathname);
+
+		if (bytes == null)
+			return "";
+
+		return StandardCharsets.UTF_8.decode(bytes).toString();
+	}
+
+	/**
+	 * Close a file channel, ignoring errors.
+	 * 
+	 * @param channel
+	 */
+	private static void close(FileChannel channel) {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Could not close file channel.");
+		}
 	}
 
 }
@@ -0,0 +1,442 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import jettyClient.parser.ByteBufferInputStream;
+import jettyClient.parser.EcpEndpoint;
+import jettyClient.parser.MetadataStreamReader;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MetadataIndex maps the entityID of every IdP with an ECP endpoint in the
+ * metadata folder to the file that registers it and its ECP endpoint.
+ * 
+ * Metadata files are loaded with LoadFile.readBytes and read with the
+ * MetadataStreamReader, so a file can be a single EntityDescriptor or an
+ * EntitiesDescriptor aggregate of any size.
+ * 
+ * The index is kept in a file, so that the metadata is only parsed again
+ * when a metadata file is added, changed or removed. A file counts as
+ * changed when its size or modification time differs from the indexed one.
+ * Changed files are indexed in parallel on a fork-join pool. A file that
+ * can not be read or is not well-formed keeps the IdPs it registered before,
+ * and is indexed again on the next refresh.
+ * 
+ * The IdPs are kept in an immutable map that refresh() replaces, so lookups
+ * are never blocked by a refresh. The index file is written to a temporary
+ * file first and moved into place, so a crash never leaves half an index.
+ * 
+ * Index file format, one record per line, fields separated by tabs:
+ * 
+ * <pre>
+ * F  file  lastModified  length
+ * E  entityID  file  ecpLocation
+ * </pre>
+ * 
+ * @author carolina
+ * 
+ */
+public class MetadataIndex {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String header = "# simple-ecp-client metadata index 3";
+
+	private final String metadataFolder;
+	private final String indexFile;
+
+	// Indexed files: name -> { lastModified, length }
+	private final Map<String, long[]> files = new HashMap<String, long[]>();
+
+	// Indexed IdPs by entityID. Never modified, only replaced.
+	private volatile Map<String, IndexedEntity> entities = Collections
+			.emptyMap();
+
+	// Time taken to index each file in the latest refresh (ms), by name.
+	private final Map<String, Long> indexTimes = new ConcurrentHashMap<String, Long>();
+
+	private boolean loaded = false;
+
+	/**
+	 * Constructor. Nothing is read until the index is refreshed.
+	 * 
+	 * @param metadataFolder
+	 * @param indexFile
+	 */
+	public MetadataIndex(String metadataFolder, String indexFile) {
+		this.metadataFolder = metadataFolder;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Bring the index up to date with the metadata folder: read the index
+	 * file the first time, index new and changed metadata files, and drop
+	 * removed ones. The index file is rewritten if anything changed.
+	 * 
+	 * @return True if the index changed.
+	 */
+	public synchronized boolean refresh() {
+
+		if (!loaded) {
+			load();
+			loaded = true;
+		}
+
+		String[] names = new File(metadataFolder).list();
+
+		if (names == null) {
+			logger.info("The IdP metadata folder " + metadataFolder
+					+ " was not found");
+			names = new String[0];
+		}
+
+		boolean changed = false;
+		Map<String, IndexedEntity> updated = new HashMap<String, IndexedEntity>(
+				entities);
+		List<String> current = new ArrayList<String>();
+		Map<String, long[]> stamps = new HashMap<String, long[]>();
+
+		for (String name : names) {
+			File file = new File(metadataFolder, name);
+
+			if (!file.isFile())
+				continue;
+
+			current.add(name);
+			long[] stamp = { file.lastModified(), file.length() };
+			long[] indexed = files.get(name);
+
+			if (indexed != null && indexed[0] == stamp[0]
+					&& indexed[1] == stamp[1])
+				continue;
+
+			stamps.put(name, stamp);
+		}
+
+		// Index the new and changed files, then merge the results.
+		if (!stamps.isEmpty()) {
+			Map<String, List<IndexedEntity>> indexed = indexFiles(stamps
+					.keySet());
+
+			for (String name : stamps.keySet()) {
+				List<IndexedEntity> found = indexed.get(name);
+
+				// Keep what a failed file registered, and try it again on the
+				// next refresh.
+				if (found == null)
+					continue;
+
+				removeEntities(updated, name);
+				for (IndexedEntity entity : found)
+					updated.put(entity.getEntityID(), entity);
+
+				files.put(name, stamps.get(name));
+				changed = true;
+			}
+		}
+
+		// Drop the files that are gone.
+		for (Iterator<String> it = files.keySet().iterator(); it.hasNext();) {
+			String name = it.next();
+			if (!current.contains(name)) {
+				it.remove();
+				removeEntities(updated, name);
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			entities = Collections.unmodifiableMap(updated);
+			save();
+			logger.info("Metadata index updated: " + entities.size()
+					+ " IdPs in " + files.size() + " files.");
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the indexed IdP with the given entityID, or null.
+	 * 
+	 * @param entityID
+	 * @return
+	 */
+	public IndexedEntity get(String entityID) {
+		return entities.get(entityID);
+	}
+
+	/**
+	 * Returns every indexed IdP.
+	 * 
+	 * @return
+	 */
+	public Collection<IndexedEntity> getEntities() {
+		return new ArrayList<IndexedEntity>(entities.values());
+	}
+
+	/**
+	 * Returns the time taken to index each file in the latest refresh, in
+	 * milliseconds, by file name. Files that had not changed are not
+	 * included.
+	 * 
+	 * @return
+	 */
+	public Map<String, Long> getIndexTimes() {
+		return new HashMap<String, Long>(indexTimes);
+	}
+
+	/**
+	 * Index metadata files in parallel. Each file is read and parsed on its
+	 * own task, so hundreds of files are spread over all cores.
+	 * 
+	 * @param names
+	 *            File names, relative to the metadata folder.
+	 * @return The IdPs found, by file name. A file that failed is missing.
+	 */
+	private Map<String, List<IndexedEntity>> indexFiles(Collection<String> names) {
+
+		final Map<String, List<IndexedEntity>> indexed = new ConcurrentHashMap<String, List<IndexedEntity>>();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(names.size());
+
+		indexTimes.clear();
+
+		for (final String name : names) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					long start = System.nanoTime();
+					List<IndexedEntity> found = indexFile(name);
+					if (found != null)
+						indexed.put(name, found);
+					long millis = TimeUnit.NANOSECONDS.toMillis(System
+							.nanoTime() - start);
+
+					indexTimes.put(name, millis);
+					logger.debug("Indexed " + name + " in " + millis + " ms");
+					return null;
+				}
+			});
+		}
+
+		int threads = Math.max(1,
+				Math.min(ClientConfiguration.metadataLoadThreads, tasks.size()));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					logger.info("Failed to index a metadata file: "
+							+ e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.error("Indexing metadata was interrupted.");
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		logger.info("Indexed " + names.size() + " metadata files on "
+				+ threads + " threads in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ " ms.");
+
+		return indexed;
+	}
+
+	/**
+	 * Find the IdPs with an ECP endpoint in one metadata file. Only reads
+	 * local state, so files can be indexed concurrently.
+	 * 
+	 * @param name
+	 *            File name, relative to the metadata folder.
+	 * @return The IdPs found, or null if the file could not be read or is not
+	 *         well-formed.
+	 */
+	private List<IndexedEntity> indexFile(String name) {
+
+		List<IndexedEntity> found = new ArrayList<IndexedEntity>();
+		String filename = metadataFolder + "/" + name;
+
+		logger.info("Indexing " + filename);
+
+		// Large aggregates are memory-mapped rather than copied to the heap,
+		// and the reader streams over the buffer.
+		ByteBuffer bytes = LoadFile.readBytes(filename);
+
+		if (bytes == null) {
+			logger.info("Could not read metadata file " + filename);
+			return null;
+		}
+
+		try {
+			for (EcpEndpoint endpoint : MetadataStreamReader
+					.read(new ByteBufferInputStream(bytes)))
+				found.add(new IndexedEntity(endpoint.getEntityID(), name,
+						endpoint.getLocation()));
+
+		} catch (XMLStreamException e) {
+			logger.info("Could not parse metadata file " + filename + ": "
+					+ e.getMessage());
+			return null;
+		}
+
+		if (found.isEmpty())
+			logger.info("Failed to extract IdP endpoint entry from file: "
+					+ filename);
+
+		return found;
+	}
+
+	private static void removeEntities(Map<String, IndexedEntity> entities,
+			String name) {
+		for (Iterator<IndexedEntity> it = entities.values().iterator(); it
+				.hasNext();)
+			if (it.next().getFile().equals(name))
+				it.remove();
+	}
+
+	/**
+	 * Read the index file. A missing or unreadable index is rebuilt from
+	 * scratch.
+	 */
+	private void load() {
+
+		if (!new File(indexFile).exists())
+			return;
+
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(Paths.get(indexFile),
+					StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			logger.info("Could not read metadata index " + indexFile);
+			return;
+		}
+
+		if (lines.isEmpty() || !lines.get(0).equals(header)) {
+			logger.info("Ignoring metadata index " + indexFile
+					+ " in an unknown format.");
+			return;
+		}
+
+		Map<String, IndexedEntity> loaded = new HashMap<String, IndexedEntity>();
+
+		try {
+			for (String line : lines.subList(1, lines.size())) {
+				String[] fields = line.split("\t");
+
+				if (fields[0].equals("F") && fields.length == 4) {
+					files.put(fields[1], new long[] {
+							Long.parseLong(fields[2]),
+							Long.parseLong(fields[3]) });
+
+				} else if (fields[0].equals("E") && fields.length == 4) {
+					loaded.put(fields[1], new IndexedEntity(fields[1],
+							fields[2], fields[3]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			logger.info("Ignoring corrupt metadata index " + indexFile);
+			files.clear();
+			return;
+		}
+
+		entities = Collections.unmodifiableMap(loaded);
+	}
+
+	/**
+	 * Write the index file. The index is written to a temporary file next to
+	 * it, which then replaces the index in one atomic move.
+	 */
+	private void save() {
+
+		StringBuilder text = new StringBuilder(header).append('\n');
+
+		for (Map.Entry<String, long[]> file : files.entrySet())
+			text.append("F\t").append(file.getKey()).append('\t')
+					.append(file.getValue()[0]).append('\t')
+					.append(file.getValue()[1]).append('\n');
+
+		for (IndexedEntity entity : entities.values())
+			text.append("E\t").append(entity.getEntityID()).append('\t')
+					.append(entity.getFile()).append('\t')
+					.append(entity.getEcpLocation()).append('\n');
+
+		Path target = Paths.get(indexFile).toAbsolutePath();
+		Path temporary = null;
+
+		try {
+			temporary = Files.createTempFile(target.getParent(), target
+					.getFileName().toString(), ".tmp");
+			Files.write(temporary,
+					text.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+			temporary = null;
+		} catch (IOException e) {
+			logger.info("Could not write metadata index " + indexFile + "\n"
+					+ e);
+		} finally {
+			delete(temporary);
+		}
+	}
+
+	/**
+	 * Delete a file, if there is one.
+	 * 
+	 * @param path
+	 */
+	private void delete(Path path) {
+		if (path == null)
+			return;
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			logger.debug("Could not delete " + path);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metadata;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MetadataWatcher reloads the IdP metadata when a file in the metadata
+ * folder is added, changed or removed, so that a running daemon picks up new
+ * IdPs and endpoint changes without a restart.
+ * 
+ * Events are collected until the folder has been quiet for
+ * ClientConfiguration.metadataReloadDelay, so that a file that is still
+ * being copied is not parsed half-written, and a batch of changes is
+ * reloaded once.
+ * 
+ * @author carolina
+ * 
+ */
+public class MetadataWatcher {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final IdpMetadata idpMetadata;
+	private final Path folder;
+
+	// Only used under the lock of this watcher; the watching thread is given
+	// its own reference.
+	private WatchService watchService = null;
+	private Thread thread = null;
+
+	/**
+	 * Constructor. Watches the metadata folder from the ClientConfiguration.
+	 * 
+	 * @param idpMetadata
+	 *            The metadata to reload.
+	 */
+	public MetadataWatcher(IdpMetadata idpMetadata) {
+		this(idpMetadata, ClientConfiguration.metadataFolder);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param idpMetadata
+	 *            The metadata to reload.
+	 * @param metadataFolder
+	 *            The folder to watch.
+	 */
+	public MetadataWatcher(IdpMetadata idpMetadata, String metadataFolder) {
+		this.idpMetadata = idpMetadata;
+		this.folder = Paths.get(metadataFolder);
+	}
+
+	/**
+	 * Start watching the folder on a background thread. The metadata is
+	 * loaded first, so the daemon starts with the current IdPs.
+	 */
+	public synchronized void start() {
+
+		if (thread != null)
+			return;
+
+		idpMetadata.reload();
+
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			folder.register(watchService,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			logger.info("Could not watch the metadata folder " + folder
+					+ ", metadata will not be reloaded.\n" + e);
+			close();
+			return;
+		}
+
+		final WatchService service = watchService;
+
+		thread = new Thread("metadata-watcher") {
+			public void run() {
+				watch(service);
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+
+		logger.info("Watching " + folder + " for metadata changes.");
+	}
+
+	/**
+	 * Stop watching the folder.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		close();
+	}
+
+	/**
+	 * Wait for changes and reload the metadata after each burst of events.
+	 * Returns when the watch service is closed or the thread is interrupted.
+	 * 
+	 * @param watchService
+	 */
+	private void watch(WatchService watchService) {
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.take();
+
+				// Drain events until the folder is quiet.
+				while (key != null) {
+					key.pollEvents(); // Any event (or OVERFLOW) means reload.
+
+					if (!key.reset()) {
+						logger.info("The metadata folder " + folder
+								+ " is no longer accessible.");
+						return;
+					}
+					key = watchService.poll(
+							ClientConfiguration.metadataReloadDelay,
+							TimeUnit.MILLISECONDS);
+				}
+
+				reload();
+			}
+		} catch (InterruptedException e) {
+			// Stopped.
+		} catch (ClosedWatchServiceException e) {
+			// Stopped.
+		}
+	}
+
+	/**
+	 * Reload the metadata. A failed reload keeps the current IdPs.
+	 */
+	private void reload() {
+		try {
+			if (idpMetadata.reload())
+				logger.info("Reloaded metadata from " + folder);
+		} catch (RuntimeException e) {
+			logger.error("Could not reload metadata from " + folder + "\n"
+					+ e);
+		}
+	}
+
+	/**
+	 * Close the watch service, which also ends the watching thread.
+	 */
+	private synchronized void close() {
+		if (watchService == null)
+			return;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.debug("Could not close the metadata watch service.");
+		}
+		watchService = null;
+	}
+}
@@ -0,0 +1,159 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Metrics is the registry of the timers and counters of the client, one per
+ * name and set of tags, e.g. timer("ecp_exchange", "hop", "idp").
+ * 
+ * Meters are created the first time they are asked for and live as long as
+ * the process. Callers on hot paths keep the meter in a static field instead
+ * of looking it up for every call. Tag values must come from a small, fixed
+ * set (hops, status codes), since every combination is a separate meter.
+ * 
+ * The meters are exported by MetricsMBean (JMX) and PrometheusFormat.
+ * 
+ * @author carolina
+ * 
+ */
+public class Metrics {
+
+	// Meters by id (name{tag="value",...}), sorted so that the meters of one
+	// name are exported together.
+	private final static ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+	private final static ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+
+	/**
+	 * Return the timer with the given name and tags.
+	 * 
+	 * @param name
+	 * @param tags
+	 *            Tag names and values: key1, value1, key2, value2...
+	 * @return
+	 */
+	public static Timer timer(String name, String... tags) {
+
+		String id = id(name, tags);
+		Timer timer = timers.get(id);
+
+		if (timer == null) {
+			timer = new Timer();
+			Timer existing = timers.putIfAbsent(id, timer);
+			if (existing != null)
+				timer = existing;
+		}
+		return timer;
+	}
+
+	/**
+	 * Return the counter with the given name and tags.
+	 * 
+	 * @param name
+	 * @param tags
+	 *            Tag names and values: key1, value1, key2, value2...
+	 * @return
+	 */
+	public static Counter counter(String name, String... tags) {
+
+		String id = id(name, tags);
+		Counter counter = counters.get(id);
+
+		if (counter == null) {
+			counter = new Counter();
+			Counter existing = counters.putIfAbsent(id, counter);
+			if (existing != null)
+				counter = existing;
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the timers by id. The map is live and read-only.
+	 * 
+	 * @return
+	 */
+	public static Map<String, Timer> getTimers() {
+		return Collections.unmodifiableMap(timers);
+	}
+
+	/**
+	 * Returns the counters by id. The map is live and read-only.
+	 * 
+	 * @return
+	 */
+	public static Map<String, Counter> getCounters() {
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * Returns the name part of a meter id.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	static String name(String id) {
+		int brace = id.indexOf('{');
+		return brace < 0 ? id : id.substring(0, brace);
+	}
+
+	/**
+	 * Returns the tag part of a meter id, with braces, or an empty String.
+	 * 
+	 * @param id
+	 * @return
+	 */
+	static String tags(String id) {
+		int brace = id.indexOf('{');
+		return brace < 0 ? "" : id.substring(brace);
+	}
+
+	/**
+	 * Build a meter id in the Prometheus label syntax: name{key="value",...}
+	 * 
+	 * @param name
+	 * @param tags
+	 * @return
+	 */
+	private static String id(String name, String[] tags) {
+
+		if (tags.length % 2 != 0)
+			throw new IllegalArgumentException("Tags must be key/value pairs.");
+
+		if (tags.length == 0)
+			return name;
+
+		StringBuilder id = new StringBuilder(name).append('{');
+
+		for (int i = 0; i < tags.length; i += 2) {
+			if (i > 0)
+				id.append(',');
+			id.append(tags[i]).append("=\"")
+					.append(escape(String.valueOf(tags[i + 1]))).append('"');
+		}
+		return id.append('}').toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+}
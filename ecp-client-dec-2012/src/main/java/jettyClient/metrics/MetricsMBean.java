@@ -0,0 +1,161 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MetricsMBean exports the meters over JMX, as read-only attributes of the
+ * MBean jettyClient:type=Metrics.
+ * 
+ * Meters are created while the client runs, so the attributes are listed
+ * from the registry every time the MBean is inspected. A counter is one
+ * attribute (its id); a timer is three, id.count, id.sum and id.max (seconds).
+ * 
+ * @author carolina
+ * 
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	public final static String objectName = "jettyClient:type=Metrics";
+
+	/**
+	 * Register the metrics with the platform MBean server. Does nothing if
+	 * they are already registered.
+	 */
+	public static void register() {
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			ObjectName name = new ObjectName(objectName);
+
+			if (!server.isRegistered(name))
+				server.registerMBean(new MetricsMBean(), name);
+
+		} catch (JMException e) {
+			logger.info("Could not register the metrics MBean.\n" + e);
+		}
+	}
+
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+
+		Counter counter = Metrics.getCounters().get(attribute);
+
+		if (counter != null)
+			return counter.getCount();
+
+		int dot = attribute.lastIndexOf('.');
+
+		if (dot > 0) {
+			Timer timer = Metrics.getTimers().get(attribute.substring(0, dot));
+			String field = attribute.substring(dot + 1);
+
+			if (timer != null) {
+				if (field.equals("count"))
+					return timer.getCount();
+				if (field.equals("sum"))
+					return timer.getTotalSeconds();
+				if (field.equals("max"))
+					return timer.getMaxSeconds();
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+
+		AttributeList list = new AttributeList();
+
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// Left out of the list, as the DynamicMBean contract asks.
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only.");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		// There are no operations.
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+		for (String id : Metrics.getCounters().keySet())
+			attributes.add(attribute(id, "long", "Count"));
+
+		for (Map.Entry<String, Timer> timer : Metrics.getTimers().entrySet()) {
+			String id = timer.getKey();
+			attributes.add(attribute(id + ".count", "long", "Times run"));
+			attributes.add(attribute(id + ".sum", "double",
+					"Total time (seconds)"));
+			attributes.add(attribute(id + ".max", "double",
+					"Longest time (seconds)"));
+		}
+
+		return new MBeanInfo(getClass().getName(),
+				"Timers and counters of the ECP client.",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name, String type,
+			String description) {
+		return new MBeanAttributeInfo(name, type, description, true, false,
+				false);
+	}
+}
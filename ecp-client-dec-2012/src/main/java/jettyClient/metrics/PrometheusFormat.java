@@ -0,0 +1,114 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the meters in the Prometheus text exposition format (version
+ * 0.0.4).
+ * 
+ * A counter is written as name_total. A timer is written as a summary,
+ * name_seconds_count and name_seconds_sum, with the longest time as a gauge,
+ * name_seconds_max.
+ * 
+ * @author carolina
+ * 
+ */
+public class PrometheusFormat {
+
+	public final static String contentType = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Returns the current value of every meter.
+	 * 
+	 * @return
+	 */
+	public static String write() {
+
+		StringBuilder text = new StringBuilder();
+
+		for (Map.Entry<String, List<String>> family : byName(
+				Metrics.getCounters()).entrySet()) {
+
+			String name = family.getKey() + "_total";
+			type(text, name, "counter");
+
+			for (String id : family.getValue())
+				sample(text, name, id, Metrics.getCounters().get(id)
+						.getCount());
+		}
+
+		for (Map.Entry<String, List<String>> family : byName(
+				Metrics.getTimers()).entrySet()) {
+
+			String name = family.getKey() + "_seconds";
+			type(text, name, "summary");
+
+			for (String id : family.getValue()) {
+				Timer timer = Metrics.getTimers().get(id);
+				sample(text, name + "_count", id, timer.getCount());
+				sample(text, name + "_sum", id, timer.getTotalSeconds());
+			}
+
+			type(text, name + "_max", "gauge");
+
+			for (String id : family.getValue())
+				sample(text, name + "_max", id, Metrics.getTimers().get(id)
+						.getMaxSeconds());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Group meter ids by name, so that every sample of a metric is written
+	 * under one TYPE line.
+	 * 
+	 * @param meters
+	 * @return
+	 */
+	private static Map<String, List<String>> byName(Map<String, ?> meters) {
+
+		Map<String, List<String>> names = new TreeMap<String, List<String>>();
+
+		for (String id : meters.keySet()) {
+			String name = Metrics.name(id);
+			List<String> ids = names.get(name);
+
+			if (ids == null) {
+				ids = new ArrayList<String>();
+				names.put(name, ids);
+			}
+			ids.add(id);
+		}
+		return names;
+	}
+
+	private static void type(StringBuilder text, String name, String type) {
+		text.append("# TYPE ").append(name).append(' ').append(type)
+				.append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, String id,
+			Object value) {
+		text.append(name).append(Metrics.tags(id)).append(' ').append(value)
+				.append('\n');
+	}
+}
@@ -0,0 +1,85 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times an operation: how many times it ran, the total and the longest time
+ * it took. Safe to record from any thread. Get timers from the Metrics
+ * registry.
+ * 
+ * <pre>
+ * long start = System.nanoTime();
+ * try {
+ * 	...
+ * } finally {
+ * 	timer.record(start);
+ * }
+ * </pre>
+ * 
+ * @author carolina
+ * 
+ */
+public class Timer {
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	Timer() {
+	}
+
+	/**
+	 * Record an operation that started at the given System.nanoTime() and
+	 * ended now.
+	 * 
+	 * @param startNanos
+	 */
+	public void record(long startNanos) {
+		recordNanos(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Record an operation that took the given time.
+	 * 
+	 * @param nanos
+	 */
+	public void recordNanos(long nanos) {
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getTotalSeconds() {
+		return toSeconds(totalNanos.sum());
+	}
+
+	public double getMaxSeconds() {
+		return toSeconds(maxNanos.get());
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,174 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.paosClient;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CookieJar stores the cookies that are set during one login session (the
+ * SP session cookie, and any other cookie the SP or IdP sets).
+ * 
+ * Cookies are matched on domain and path before they are sent back, and
+ * expired cookies are dropped. The jar is backed by a java.net.CookieManager,
+ * whose store is safe to use from concurrent exchanges.
+ * 
+ * @author carolina
+ * 
+ */
+public class CookieJar {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Only accept cookies for the host that set them.
+	private final CookieManager cookieManager = new CookieManager(null,
+			CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+
+	/**
+	 * Store every cookie set in the response headers from an endpoint.
+	 * 
+	 * @param endpoint
+	 *            The URL the response was received from.
+	 * @param responseFields
+	 *            The response headers.
+	 */
+	public void storeCookies(URL endpoint, HttpFields responseFields) {
+
+		URI uri = toURI(endpoint);
+
+		if (uri == null || responseFields == null)
+			return;
+
+		Map<String, List<String>> headers = new HashMap<String, List<String>>();
+		headers.put(HttpHeaders.SET_COOKIE, Collections.list(responseFields
+				.getValues(HttpHeaders.SET_COOKIE)));
+		headers.put(HttpHeaders.SET_COOKIE2, Collections.list(responseFields
+				.getValues(HttpHeaders.SET_COOKIE2)));
+
+		try {
+			cookieManager.put(uri, headers);
+		} catch (IOException e) {
+			logger.debug("Could not store cookies from " + endpoint);
+		}
+	}
+
+	/**
+	 * Returns the value of the Cookie header to send to an endpoint, or null
+	 * if no stored cookie matches the endpoint.
+	 * 
+	 * @param endpoint
+	 * @return
+	 */
+	public String getCookieHeader(URL endpoint) {
+
+		URI uri = toURI(endpoint);
+
+		if (uri == null)
+			return null;
+
+		List<String> cookies = null;
+
+		try {
+			Map<String, List<String>> empty = Collections.emptyMap();
+			cookies = cookieManager.get(uri, empty).get(HttpHeaders.COOKIE);
+		} catch (IOException e) {
+			logger.debug("Could not read cookies for " + endpoint);
+		}
+
+		if (cookies == null || cookies.isEmpty())
+			return null;
+
+		StringBuilder header = new StringBuilder();
+
+		for (String cookie : cookies) {
+			if (header.length() > 0)
+				header.append("; ");
+			header.append(cookie);
+		}
+		return header.toString();
+	}
+
+	/**
+	 * Returns a new jar that holds copies of the cookies in this one. Cookies
+	 * stored in either jar afterwards are not seen by the other.
+	 * 
+	 * @return
+	 */
+	public CookieJar copy() {
+
+		CookieJar copy = new CookieJar();
+		CookieStore from = cookieManager.getCookieStore();
+		CookieStore to = copy.cookieManager.getCookieStore();
+
+		for (URI uri : from.getURIs())
+			for (HttpCookie cookie : from.get(uri))
+				to.add(uri, (HttpCookie) cookie.clone());
+
+		return copy;
+	}
+
+	/**
+	 * Returns every cookie in the jar that has not expired.
+	 * 
+	 * @return
+	 */
+	public List<HttpCookie> getCookies() {
+		return cookieManager.getCookieStore().getCookies();
+	}
+
+	/**
+	 * Returns true if the jar holds no cookies that have not expired.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return getCookies().isEmpty();
+	}
+
+	/**
+	 * Turn an endpoint URL into the URI the CookieManager works with.
+	 * 
+	 * @param endpoint
+	 * @return
+	 */
+	private URI toURI(URL endpoint) {
+		try {
+			return endpoint.toURI();
+		} catch (URISyntaxException e) {
+			logger.debug("Malformed endpoint URL: " + endpoint);
+		}
+		return null;
+	}
+}
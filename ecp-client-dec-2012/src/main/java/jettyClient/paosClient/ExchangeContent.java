@@ -19,9 +19,11 @@ package jettyClient.paosClient;
 import java.net.URL;
 
 import jettyClient.EnvelopeHandling.EnvelopeParts;
+import jettyClient.parser.HeaderFields;
 import jettyClient.simpleClient.ClientConfiguration;
+import jettyClient.tracing.Span;
 
-import org.eclipse.jetty.client.security.RealmResolver;
+import org.eclipse.jetty.client.security.Realm;
 import org.eclipse.jetty.http.HttpFields;
 import org.opensaml.soap.soap11.Envelope;
 import org.slf4j.Logger;
@@ -52,16 +54,27 @@ public class ExchangeContent {
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 	
+	/* Hops of the ECP flow, used to tag the exchange metrics */
+	public final static String hopSP = "sp";
+	public final static String hopIdP = "idp";
+	public final static String hopConsumer = "consumer";
+	
 	/* Request parts */
+	private String hop = null;
+	private Span span = Span.none();
 	private Envelope requestEnvelope = null;
-	private RealmResolver realmResolver = null;
+	private byte[] requestMessage = null;
+	private Realm realm = null;
 	private URL endpointURL = null;
 	
 	/* Response parts */
 //	private Envelope responseEnvelope = null;
 	private EnvelopeParts responseParts = null; 
-	private String cookieField = "";
+	private HeaderFields headerFields = null;
+	private byte[] responseMessage = null;
+	private CookieJar cookieJar = null;
 	private HttpFields headers = null;
+	private int responseStatus = 0;
 	
 	/* *
 	 * Any response that is not an envelope will be stored here.
@@ -78,16 +91,36 @@ public class ExchangeContent {
 	 * and any cookies and/or credential used for authentication.
 	 * 
 	 * @param envelope A SOAP Envelope that is to be sent.
-	 * @param realmResolver Credential used for HTTP BASIC authentication at the IdP.
+	 * @param realm Credential used for HTTP BASIC authentication at the IdP.
+	 * It is sent with this exchange only.
 	 */
 	
-	public ExchangeContent(Envelope envelope, RealmResolver realmResolver) {
+	public ExchangeContent(Envelope envelope, Realm realm) {
 		this.requestEnvelope = envelope;
-		this.realmResolver = realmResolver;
+		this.realm = realm;
 	}
 		
 	/* Getters */
 	
+	/**
+	 * Returns the hop of the ECP flow this exchange is (hopSP, hopIdP or
+	 * hopConsumer), or null if it has not been set.
+	 * 
+	 * @return
+	 */
+	public String getHop() {
+		return hop;
+	}
+	
+	/**
+	 * Returns the span of the login, or Span.none() if it is not traced.
+	 * 
+	 * @return
+	 */
+	public Span getSpan() {
+		return span;
+	}
+	
 	public Envelope getRequestEnvelope() {
 		return requestEnvelope;
 	}
@@ -100,12 +133,12 @@ public class ExchangeContent {
 		return responseParts;
 	}
 	
-	public RealmResolver getRealmResolver() {
-		return realmResolver;
+	public Realm getRealm() {
+		return realm;
 	}
 	
-	public String getCookieField() {
-		return cookieField;
+	public CookieJar getCookieJar() {
+		return cookieJar;
 	}
 	
 	public byte[] getOtherResponse() {
@@ -118,16 +151,36 @@ public class ExchangeContent {
 	
 	/* Setters */
 	
+	public void setHop(String hop) {
+		this.hop = hop;
+	}
+	
+	/**
+	 * Set the span of the login this exchange is part of. The exchange and
+	 * its phases are traced as children of it.
+	 * 
+	 * @param span
+	 */
+	public void setSpan(Span span) {
+		this.span = span;
+	}
+	
 	public void setRequestEnvelope(Envelope envelope) {
 		this.requestEnvelope = envelope;
 	}
 	
-	public void setRealmResolver(RealmResolver realmResolver) {
-		this.realmResolver = realmResolver;
+	public void setRealm(Realm realm) {
+		this.realm = realm;
 	}
 	
-	public void setCookieField(String cookieField) {
-		this.cookieField = cookieField;
+	/**
+	 * Set the cookie jar of the login session. Cookies in the jar are sent
+	 * with the request, and cookies set in the response are stored in it.
+	 * 
+	 * @param cookieJar
+	 */
+	public void setCookieJar(CookieJar cookieJar) {
+		this.cookieJar = cookieJar;
 	}
 
 //	public void setResponseEnvelope(Envelope responseEnvelope) {
@@ -138,6 +191,48 @@ public class ExchangeContent {
 		this.responseParts = responseParts;		
 	}
 
+	/**
+	 * Returns the routing fields scanned from the response SOAP header, or
+	 * null if the response was not a SOAP Envelope.
+	 * 
+	 * @return
+	 */
+	public HeaderFields getHeaderFields() {
+		return headerFields;
+	}
+
+	public void setHeaderFields(HeaderFields headerFields) {
+		this.headerFields = headerFields;
+	}
+
+	/**
+	 * Returns a serialized SOAP Envelope to send instead of the request
+	 * envelope, or null. Used in relay mode.
+	 * 
+	 * @return
+	 */
+	public byte[] getRequestMessage() {
+		return requestMessage;
+	}
+
+	public void setRequestMessage(byte[] requestMessage) {
+		this.requestMessage = requestMessage;
+	}
+
+	/**
+	 * Returns the received SOAP Envelope as bytes, or null. Only stored in
+	 * relay mode, where the response is not parsed into EnvelopeParts.
+	 * 
+	 * @return
+	 */
+	public byte[] getResponseMessage() {
+		return responseMessage;
+	}
+
+	public void setResponseMessage(byte[] responseMessage) {
+		this.responseMessage = responseMessage;
+	}
+
 	public void setOtherResponse(byte[] otherResponse) {
 		this.otherResponse = otherResponse;		
 	}
@@ -145,4 +240,18 @@ public class ExchangeContent {
 	public HttpFields getHeaders() {
 		return headers;
 	}
+
+	/**
+	 * Returns the HTTP status of the response, or 0 if no response has been
+	 * received.
+	 * 
+	 * @return
+	 */
+	public int getResponseStatus() {
+		return responseStatus;
+	}
+
+	public void setResponseStatus(int responseStatus) {
+		this.responseStatus = responseStatus;
+	}
 }
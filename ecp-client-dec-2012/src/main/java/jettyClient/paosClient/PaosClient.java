@@ -16,20 +16,39 @@
 
 package jettyClient.paosClient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jettyClient.EnvelopeHandling.EnvelopeParts;
+import jettyClient.capture.MessageCapture;
+import jettyClient.metrics.Counter;
+import jettyClient.metrics.Metrics;
+import jettyClient.metrics.Timer;
+import jettyClient.parser.EnvelopeValidationException;
+import jettyClient.parser.ExtractField;
+import jettyClient.parser.HeaderFields;
+import jettyClient.parser.HeaderScanner;
 import jettyClient.parser.MessageParser; // parse text to Envelope
-import jettyClient.parser.ValidateXML; // validates the SOAP envelope.
+import jettyClient.simpleClient.BufferPool;
 import jettyClient.simpleClient.ClientConfiguration;
 import jettyClient.simpleClient.ClientExchange; // extends HttpContentExchange
+import jettyClient.simpleClient.PooledBuffer;
+import jettyClient.tracing.Span;
 
 import org.eclipse.jetty.client.Address;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.security.BasicAuthentication;
+import org.eclipse.jetty.client.security.Realm;
 import org.eclipse.jetty.http.HttpHeaders;
 import org.eclipse.jetty.http.HttpMethods;
 import org.eclipse.jetty.http.HttpSchemes;
@@ -43,14 +62,75 @@ import org.slf4j.LoggerFactory;
 
 public class PaosClient {
 
+	// Stores the responses of every PaosClient. Daemon threads, so that the
+	// pool never keeps the client running.
+	private final static ExecutorService responseExecutor = Executors
+			.newFixedThreadPool(ClientConfiguration.responseThreads,
+					runnable -> {
+						Thread thread = new Thread(runnable, "ecp-response");
+						thread.setDaemon(true);
+						return thread;
+					});
+
+	// Hop of an exchange that was not given one.
+	private final static String hopOther = "other";
+
+	// The meters of each hop, and the HTTP error counters by status, looked
+	// up once instead of for every exchange.
+	private final static Map<String, HopMeters> hopMeters = hopMeters(
+			ExchangeContent.hopSP, ExchangeContent.hopIdP,
+			ExchangeContent.hopConsumer, hopOther);
+	private final static ConcurrentMap<Integer, Counter> httpErrors = new ConcurrentHashMap<Integer, Counter>();
+
 	private final HttpClient httpClient;
 
+	// Runs storeResponse, off the HttpClient's selector and pool threads.
+	private final Executor executor;
+
+	// Keep SOAP responses as bytes instead of parsing them into EnvelopeParts.
+	private final boolean relayMode;
+
+	// Send to plain http URLs over http instead of forcing HTTPS.
+	private boolean allowHttp = false;
+
 	// Get the client logger
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 
 	public PaosClient(HttpClient httpClient) {
+		this(httpClient, false);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * In relay mode, a SOAP response is not validated or parsed into
+	 * EnvelopeParts. Only its header is scanned, and the message is stored as
+	 * bytes so that its Body can be relayed with RelayEnvelope.
+	 * 
+	 * @param httpClient
+	 * @param relayMode
+	 */
+	public PaosClient(HttpClient httpClient, boolean relayMode) {
+		this(httpClient, relayMode, responseExecutor);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * Responses are validated, parsed and stored on the given executor, so
+	 * that the HttpClient's threads are free to read and write sockets while
+	 * a response is being parsed.
+	 * 
+	 * @param httpClient
+	 * @param relayMode
+	 * @param executor
+	 */
+	public PaosClient(HttpClient httpClient, boolean relayMode,
+			Executor executor) {
 		this.httpClient = httpClient;
+		this.relayMode = relayMode;
+		this.executor = executor;
 	}
 
 	/**
@@ -58,27 +138,55 @@ public class PaosClient {
 	 * resource from a SP without being authenticated. The expected response is
 	 * a SOAP Envelope that contains an AuthnRequest.
 	 * 
+	 * Blocks until the exchange is done.
+	 * 
 	 * @param endpoint
 	 * @return
 	 */
 	public ExchangeContent sendHttpGETRequest(URL endpoint,
 			ExchangeContent content) {
 
+		return waitForContent(sendHttpGETRequestAsync(endpoint, content),
+				content);
+	}
+
+	/**
+	 * Send a GET request to the specified URL without blocking the caller.
+	 * 
+	 * The returned future is completed with the content object once the
+	 * response (SOAP Envelope with an AuthnRequest) has been stored in it, or
+	 * completed exceptionally if no response was received.
+	 * 
+	 * @param endpoint
+	 * @param content
+	 * @return
+	 */
+	public CompletableFuture<ExchangeContent> sendHttpGETRequestAsync(
+			final URL endpoint, final ExchangeContent content) {
+
+		long start = System.nanoTime();
+
 		// Set up a connection to the SP.
 		ClientExchange serviceProviderExchange = getPAOSExchange(endpoint);
 
-		System.out.println("Getting resource: " + endpoint);
+		// Add the session cookies to the Exchange (if there are any)
+		setCookies(serviceProviderExchange, endpoint, content);
 
-		// Send GET request
-		serviceProviderExchange = exchangeContent(httpClient,
-				serviceProviderExchange);
-
-		if (serviceProviderExchange != null) {
-			// Store response (SOAP Envelope with an AuthnRequest)
-			content = storeResponse(serviceProviderExchange, content);
-		}
+		System.out.println("Getting resource: " + endpoint);
 
-		return content;
+		Span span = startSpan(content, ExchangeContent.hopSP, "GET", endpoint);
+		serviceProviderExchange.setSpan(span);
+
+		// Send GET request, store response (SOAP Envelope with an
+		// AuthnRequest)
+		return timed(
+				released(
+						exchangeContent(httpClient, serviceProviderExchange)
+								.thenApplyAsync(
+										exchange -> storeResponse(endpoint,
+												exchange, content), executor),
+						serviceProviderExchange),
+				hopMeters.get(ExchangeContent.hopSP), start, span);
 	}
 
 	/**
@@ -88,62 +196,195 @@ public class PaosClient {
 	 * Whatever the response contains, it will be stored in the ExchangeContent
 	 * object.
 	 * 
-	 * Any single cookie that is sent along with a Response will also be stored
-	 * in the ExchangeContent object.
+	 * Any cookies that are sent along with a Response will be stored in the
+	 * cookie jar of the ExchangeContent object.
 	 * 
 	 * The content object is returned, possibly unchanged, but only if no
 	 * response at all was received.
 	 * 
+	 * Blocks until the exchange is done.
+	 * 
 	 * @param endpoint
 	 * @param content
 	 * @return Returns an ExchangeContent object with a response.
 	 */
 	public ExchangeContent send(URL endpoint, ExchangeContent content) {
 
+		return waitForContent(sendAsync(endpoint, content), content);
+	}
+
+	/**
+	 * Send a SOAP envelope to an endpoint without blocking the caller.
+	 * 
+	 * The returned future is completed with the content object once the
+	 * response has been stored in it, or completed exceptionally if no
+	 * response was received.
+	 * 
+	 * @param endpoint
+	 * @param content
+	 * @return
+	 */
+	public CompletableFuture<ExchangeContent> sendAsync(final URL endpoint,
+			final ExchangeContent content) {
+
+		long start = System.nanoTime();
+
 		// Create a new POST exchange.
 		ClientExchange clientExchange = getPOSTExchange(endpoint);
 
-		// Write the Envelope to a ByteArrayOutputStream
-		ByteArrayOutputStream stream = MessageParser.envelopeToStream(content
-				.getRequestEnvelope());
+		String destination = clientExchange.getAddress().getHost()
+				+ clientExchange.getRequestURI();
 
-		// Add content to the Exchange
-		clientExchange.setRequestContent(new ByteArrayBuffer(stream
-				.toByteArray()));
+		// Use the serialized Envelope if there is one (relay mode), or else
+		// serialize the Envelope into a pooled buffer that Jetty sends from.
+		// The buffer is released with the response when the exchange is
+		// done; it only goes back to the pool if the exchange completed.
+		byte[] message = content.getRequestMessage();
 
-		logger.info("\nSent to " + clientExchange.getAddress().getHost()
-				+ clientExchange.getRequestURI() + "\n" + stream.toString());
-
-		// Add the cookie to the Exchange (if there is one)
-		// VERY SP SPECIFIC CODE. CAN FAIL.
-		if (!content.getCookieField().equals(""))
-			clientExchange.setRequestHeader(HttpHeaders.COOKIE,
-					content.getCookieField() + ";");
+		if (message != null) {
+			clientExchange.setRequestContent(new ByteArrayBuffer(message));
+			MessageCapture.sent(destination, message);
+		} else {
+			Span build = content.getSpan().child("build");
+			PooledBuffer requestBuffer = BufferPool.shared().acquire();
+			try {
+				MessageParser.writeEnvelope(content.getRequestEnvelope(),
+						requestBuffer);
+			} catch (RuntimeException e) {
+				requestBuffer.release();
+				throw e;
+			}
+			build.end();
 
-		// Set realmResolver if there is one to set.
-		if (content.getRealmResolver() != null)
-			httpClient.setRealmResolver(content.getRealmResolver());
+			clientExchange.setRequestContent(requestBuffer);
+			MessageCapture.sent(destination, requestBuffer.asByteBuffer());
+		}
 
-		// Send exchange
-		clientExchange = exchangeContent(httpClient, clientExchange);
+		// Add the session cookies to the Exchange (if there are any)
+		setCookies(clientExchange, endpoint, content);
+
+		// Add the Authorization header to this exchange only, if there are
+		// credentials to send. The shared httpClient is left untouched.
+		if (content.getRealm() != null)
+			setCredentials(clientExchange, content.getRealm());
+
+		final String hop = content.getHop() != null ? content.getHop()
+				: hopOther;
+		final HopMeters meters = hopMeters.containsKey(hop) ? hopMeters
+				.get(hop) : hopMeters.get(hopOther);
+
+		Span span = startSpan(content, hop, "POST", endpoint);
+		clientExchange.setSpan(span);
+
+		// Send exchange, then inspect and store the response message. Could
+		// be *anything*.
+		return timed(released(exchangeContent(httpClient, clientExchange)
+				.thenApplyAsync(exchange -> {
+					ExchangeContent stored = storeResponse(endpoint, exchange,
+							content);
+
+					// If the response was an envelope, check if the IdP sent a
+					// SOAP fault message
+					if (stored.getHeaderFields() != null
+							&& stored.getHeaderFields().isSoapFault()) {
+						logger.info("Received a SOAP fault from the IdP.");
+						meters.soapFaults.increment();
+					}
+					return stored;
+				}, executor), clientExchange), meters, start, span);
+	}
 
-		// exchangeContent() will return null when something fails.
-		if (clientExchange != null) {
+	/**
+	 * Release the buffers of an exchange once its response has been stored,
+	 * or once it has failed without one. ClientExchange.release() only hands
+	 * them back to the pool if Jetty is done with them.
+	 * 
+	 * @param future
+	 *            Completed when the response of the exchange has been stored.
+	 * @param clientExchange
+	 * @return A future that completes like the given one.
+	 */
+	private CompletableFuture<ExchangeContent> released(
+			CompletableFuture<ExchangeContent> future,
+			final ClientExchange clientExchange) {
 
-			// Inspect and store the response message. Could be *anything*.
-			content = storeResponse(clientExchange, content);
+		return future.whenComplete((stored, error) -> clientExchange
+				.release());
+	}
 
-			// If the response was not an envelope.
-			if (content.getResponseParts() != null) {
-				// Check if the IdP sent a SOAP fault message
-				if (containsSoapFault(content.getResponseParts().getBody())) {
-					logger.info("Received a SOAP fault from the IdP.");
-				}
+	/**
+	 * Time an exchange, from when it is sent until its response has been
+	 * stored, and count the exchanges that fail.
+	 * 
+	 * @param future
+	 * @param meters
+	 *            The meters of the hop of the ECP flow.
+	 * @param start
+	 *            System.nanoTime() when the exchange was created.
+	 * @param span
+	 *            The span of the exchange, ended with it.
+	 * @return A future that completes like the given one.
+	 */
+	private CompletableFuture<ExchangeContent> timed(
+			CompletableFuture<ExchangeContent> future, final HopMeters meters,
+			final long start, final Span span) {
+
+		return future.whenComplete((stored, error) -> {
+			meters.exchange.record(start);
+
+			if (error != null) {
+				meters.failures.increment();
+				span.setError(error.toString());
+			} else if (stored.getResponseStatus() >= 400) {
+				span.setError("HTTP " + stored.getResponseStatus());
 			}
-			// Check if anything could be stored. React.
 
-		} else {
-			logger.info("Could not send envelope.");
+			if (stored != null)
+				span.setAttribute("http.response.status_code",
+						stored.getResponseStatus());
+			span.end();
+		});
+	}
+
+	/**
+	 * Start the span of an exchange, as a child of the span in the content.
+	 * 
+	 * @param content
+	 * @param hop
+	 * @param method
+	 * @param endpoint
+	 * @return
+	 */
+	private Span startSpan(ExchangeContent content, String hop,
+			String method, URL endpoint) {
+
+		Span span = content.getSpan().child(hop + " " + method,
+				Span.kindClient);
+		span.setAttribute("ecp.hop", hop);
+		span.setAttribute("http.request.method", method);
+		span.setAttribute("server.address", endpoint.getHost());
+		span.setAttribute("url.path", endpoint.getPath());
+		return span;
+	}
+
+	/**
+	 * Wait for an asynchronous exchange to finish. Returns the content object
+	 * unchanged if no response was received.
+	 * 
+	 * @param future
+	 * @param content
+	 * @return
+	 */
+	private ExchangeContent waitForContent(
+			CompletableFuture<ExchangeContent> future, ExchangeContent content) {
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			logger.error("ContentExchange was interrupted.");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.info("Could not send message. " + e.getCause());
 		}
 		return content;
 	}
@@ -156,46 +397,77 @@ public class PaosClient {
 	 * responseContent should be filled with a response from the IdP, or it will
 	 * be returned empty.
 	 * 
+	 * The response is parsed straight from the pooled buffer of the exchange.
+	 * Only bytes that are kept in the content (relay envelopes, resources) are
+	 * copied. The caller releases the buffer once the response has been
+	 * stored.
+	 * 
+	 * @param endpoint
 	 * @param clientExchange
 	 * @param content
 	 */
-	private ExchangeContent storeResponse(ClientExchange clientExchange,
-			ExchangeContent content) {
-
-		// String response = "";
-		String cookieField = "";
-		byte[] responseBytes = null; //
+	private ExchangeContent storeResponse(URL endpoint,
+			ClientExchange clientExchange, ExchangeContent content) {
 
-		// response = clientExchange.getResponseContent();
-		// byte[] = any other response object
-		responseBytes = clientExchange.getResponseContentBytes();
+		content.setResponseStatus(clientExchange.getResponseStatus());
 
 		// Check response status (200 = OK)
 		if (clientExchange.getResponseStatus() == 200) {
-			// If the response contains an envelope...
-
-			logger.info("\nReceived from "
-					+ clientExchange.getAddress().getHost() + ":\n"
-					+ new String(responseBytes));
-			
-			
-			if (isEnvelope(responseBytes)) {
-				// Extract + save an Envelope as EnvelopeParts from the
-				// response.
-				content.setResponseParts(MessageParser
-						.parseMessage(responseBytes));
+
+			MessageCapture.received(clientExchange.getAddress().getHost(),
+					clientExchange.getResponseContentView());
+
+			Span parse = clientExchange.getSpan().child(
+					relayMode ? "scan" : "validate+parse");
+
+			if (relayMode) {
+				// Keep the Envelope as bytes, only scan its header. The Body
+				// is located in these bytes, so scan the copy that is kept.
+				byte[] message = clientExchange.getResponseContentBytes();
+				HeaderFields fields = HeaderScanner.scan(message);
+
+				content.setResponseParts(null);
+				content.setHeaderFields(fields);
+
+				if (fields != null) {
+					content.setResponseMessage(message);
+				} else {
+					logger.debug("No SOAP Envelope received as response.");
+					content.setOtherResponse(message);
+				}
 
 			} else {
-				logger.debug("No SOAP Envelope received as response.");
+				try {
+					// Validate the response while it is parsed, and save the
+					// Envelope as EnvelopeParts.
+					EnvelopeParts parts = MessageParser
+							.parseValidatedMessage(clientExchange
+									.getResponseContentStream());
+					content.setResponseParts(parts);
+
+					// Read the routing fields from the parsed header, instead
+					// of scanning the message a second time.
+					content.setHeaderFields(ExtractField
+							.extractHeaderFields(parts));
+
+				} catch (EnvelopeValidationException e) {
+					logger.debug("No SOAP Envelope received as response. "
+							+ e.getMessage());
 				
-				// Make sure the responseparts are empty.
-				content.setResponseParts(null);
+					// Make sure the responseparts are empty.
+					content.setResponseParts(null);
+					content.setHeaderFields(null);
 				
-				// This is where the resource will be stored. Or anything
-				// else that is received, that is not a SOAP Envelope.
-				content.setOtherResponse(responseBytes);
+					// This is where the resource will be stored. Or anything
+					// else that is received, that is not a SOAP Envelope.
+					content.setOtherResponse(clientExchange
+							.getResponseContentBytes());
+				}
 			}
 
+			parse.setAttribute("ecp.envelope", content.getHeaderFields() != null);
+			parse.end();
+
 			// Check if the response contains any headers.
 			if (clientExchange.getResponseFields() != null) {
 
@@ -203,15 +475,10 @@ public class PaosClient {
 				// Authorization header from the SP when logged in.)
 				content.setHeaders(clientExchange.getResponseFields());
 
-				// Get the cookie field.
-				cookieField = clientExchange.getResponseFields()
-						.getStringField("Set-Cookie");
-
-				// Save the session cookie (from the SP).
-				if (cookieField != null) {
-					if (cookieField.isEmpty() == false)
-						content.setCookieField(cookieField);
-				}
+				// Save the cookies (the session cookie from the SP).
+				if (content.getCookieJar() != null)
+					content.getCookieJar().storeCookies(endpoint,
+							clientExchange.getResponseFields());
 			}
 		} else {
 			String error = "HTTP Error, status: "
@@ -219,12 +486,89 @@ public class PaosClient {
 					+ clientExchange.getAddress().getHost() + ".";
 
 			System.out.println(error);
-			logger.debug(error + "\n" + new String(responseBytes));
-			content.setOtherResponse(responseBytes);
+			logger.debug(error);
+			httpErrors.computeIfAbsent(
+					clientExchange.getResponseStatus(),
+					status -> Metrics.counter("ecp_http_errors", "status",
+							String.valueOf(status))).increment();
+			MessageCapture.received(clientExchange.getAddress().getHost(),
+					clientExchange.getResponseContentView());
+			content.setOtherResponse(clientExchange.getResponseContentBytes());
 		}
+
 		return content;
 	}
 
+	/**
+	 * Set a Cookie header with the cookies from the session cookie jar that
+	 * match the endpoint.
+	 * 
+	 * @param clientExchange
+	 * @param endpoint
+	 * @param content
+	 */
+	private void setCookies(ClientExchange clientExchange, URL endpoint,
+			ExchangeContent content) {
+
+		if (content.getCookieJar() == null)
+			return;
+
+		String cookies = content.getCookieJar().getCookieHeader(endpoint);
+
+		if (cookies != null)
+			clientExchange.setRequestHeader(HttpHeaders.COOKIE, cookies);
+	}
+
+	/**
+	 * Set a HTTP BASIC Authorization header on an exchange.
+	 * 
+	 * @param clientExchange
+	 * @param realm
+	 *            Credentials for the receiver of the exchange.
+	 */
+	private void setCredentials(ClientExchange clientExchange, Realm realm) {
+		try {
+			new BasicAuthentication(realm).setCredentials(clientExchange);
+		} catch (IOException e) {
+			logger.debug("Could not set credentials for "
+					+ clientExchange.getAddress().getHost());
+		}
+	}
+
+	/**
+	 * Allow plain http for http URLs. By default every exchange uses HTTPS,
+	 * whatever the scheme of the URL. Only meant for the local mock SP and
+	 * IdP.
+	 * 
+	 * @param allowHttp
+	 */
+	public void setAllowHttp(boolean allowHttp) {
+		this.allowHttp = allowHttp;
+	}
+
+	/**
+	 * Set the scheme, address and uri of an exchange from an URL. HTTPS is
+	 * used unless plain http is allowed and the URL is a http URL.
+	 * 
+	 * @param exchange
+	 * @param url
+	 */
+	private void setEndpoint(ClientExchange exchange, URL url) {
+
+		boolean http = allowHttp && "http".equalsIgnoreCase(url.getProtocol());
+
+		if (http)
+			exchange.setScheme(HttpSchemes.HTTP_BUFFER);
+		else
+			exchange.setScheme(HttpSchemes.HTTPS_BUFFER); // Enable HTTPS
+
+		// Use the default port of the scheme if the URL has none.
+		int port = url.getPort() != -1 ? url.getPort() : (http ? 80 : 443);
+
+		exchange.setAddress(new Address(url.getHost(), port));
+		exchange.setRequestURI(url.getFile());
+	}
+
 	/**
 	 * Generate a new POST exchange.
 	 * 
@@ -237,12 +581,10 @@ public class PaosClient {
 
 		ClientExchange exchange = null;
 
-		exchange = new ClientExchange();
+		// Cache headers, so that cookies set in the response can be stored.
+		exchange = new ClientExchange(true);
 		exchange.setMethod(HttpMethods.POST);
-		exchange.setScheme(HttpSchemes.HTTPS_BUFFER); // Enable HTTPS
-
-		exchange.setAddress(new Address(url.getHost(), url.getPort()));
-		exchange.setRequestURI(url.getFile());
+		setEndpoint(exchange, url);
 
 		exchange.setRequestHeader(HttpHeaders.ACCEPT, MimeTypes.TEXT_HTML);
 
@@ -276,11 +618,7 @@ public class PaosClient {
 		Boolean cache_headers = true;
 		exchange = new ClientExchange(cache_headers);
 		exchange.setMethod(HttpMethods.GET);
-		exchange.setScheme(HttpSchemes.HTTPS_BUFFER);
-
-		// Set address & uri
-		exchange.setAddress(new Address(url.getHost(), url.getPort()));
-		exchange.setRequestURI(url.getFile());
+		setEndpoint(exchange, url);
 
 		// Set headers
 		exchange.setRequestHeader(HttpHeaders.ACCEPT, MimeTypes.TEXT_HTML
@@ -292,20 +630,18 @@ public class PaosClient {
 	}
 
 	/**
-	 * Sends a contentExchange to a receiver, returns the response, whatever it
-	 * may be, as a text string (if STATUS_COMPLETED), or else null.
+	 * Sends a contentExchange to a receiver. The returned future is completed
+	 * with the exchange when the response is complete, or completed
+	 * exceptionally if the exchange fails or expires.
 	 * 
 	 * Universal code, can be used with any httpClient.
 	 * 
 	 * @param httpClient
 	 * @param clientExchange
 	 * @return
-	 * @throws IOException
-	 * @throws InterruptedException
-	 * @throws UnsupportedEncodingException
 	 */
-	private ClientExchange exchangeContent(HttpClient httpClient,
-			ClientExchange clientExchange) {
+	private CompletableFuture<ClientExchange> exchangeContent(
+			HttpClient httpClient, ClientExchange clientExchange) {
 
 		// Send clientExchange
 		try {
@@ -313,39 +649,11 @@ public class PaosClient {
 		} catch (IOException e) {
 			logger.debug("Could not send message to "
 					+ clientExchange.getAddress().getHost());
+			clientExchange.getCompletion().completeExceptionally(e);
 		}
 
-		// Wait until something is received.
-		int state = 0;
-
-		try {
-			state = clientExchange.waitForDone();
-		} catch (InterruptedException e) {
-			logger.error("ContentExchange was interrupted.");
-		}
-
-		if (state == ClientExchange.STATUS_COMPLETED) {
-			return clientExchange;
-		} else if (state == ClientExchange.STATUS_EXCEPTED)
-			logger.error("Exception in ContextExchange");
-		else if (state == ClientExchange.STATUS_EXPIRED) // client.setTimeout(timeToExpire);
-			logger.error("ContentExchange expired");
-		return null;
-	}
-
-	/**
-	 * Check if the message contains a SOAP envelope.
-	 * 
-	 * @param responseMessage
-	 * @return
-	 */
-	private boolean isEnvelope(byte[] responseMessage) {
-
-		if (responseMessage != null)
-			if (ValidateXML.isValidEnvelope(new ByteArrayInputStream(
-					responseMessage)))
-				return true;
-		return false;
+		// Completed by the ClientExchange callbacks.
+		return clientExchange.getCompletion();
 	}
 
 	/**
@@ -356,7 +664,7 @@ public class PaosClient {
 	 * @param body
 	 * @return
 	 */
-	public boolean containsSoapFault(Body body) {
+	public static boolean containsSoapFault(Body body) {
 
 		// Body can't be null, since if the idp
 		// sent an envelope it has to contain a body.
@@ -372,4 +680,36 @@ public class PaosClient {
 		return false;
 	}
 
+
+	/**
+	 * Create the meters of the given hops.
+	 * 
+	 * @param hops
+	 * @return The meters by hop.
+	 */
+	private static Map<String, HopMeters> hopMeters(String... hops) {
+
+		Map<String, HopMeters> meters = new HashMap<String, HopMeters>();
+
+		for (String hop : hops)
+			meters.put(hop, new HopMeters(hop));
+		return meters;
+	}
+
+	/**
+	 * The meters of one hop of the ECP flow, tagged with the hop. An exchange
+	 * with a hop that is not one of the flow's is counted as "other".
+	 */
+	private static class HopMeters {
+
+		final Timer exchange;
+		final Counter failures;
+		final Counter soapFaults;
+
+		HopMeters(String hop) {
+			exchange = Metrics.timer("ecp_exchange", "hop", hop);
+			failures = Metrics.counter("ecp_exchange_failures", "hop", hop);
+			soapFaults = Metrics.counter("ecp_soap_faults", "hop", hop);
+		}
+	}
 }
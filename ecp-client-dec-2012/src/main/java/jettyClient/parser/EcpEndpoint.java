@@ -0,0 +1,52 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.parser;
+
+/**
+ * The ECP endpoint of one IdP, as found in metadata by the
+ * MetadataStreamReader: the entityID and the location of the SOAP binding
+ * SingleSignOnService.
+ * 
+ * @author carolina
+ * 
+ */
+public class EcpEndpoint {
+
+	private final String entityID;
+	private final String location;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param entityID
+	 * @param location
+	 */
+	public EcpEndpoint(String entityID, String location) {
+		this.entityID = entityID;
+		this.location = location;
+	}
+
+	/* Getters */
+
+	public String getEntityID() {
+		return entityID;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+}
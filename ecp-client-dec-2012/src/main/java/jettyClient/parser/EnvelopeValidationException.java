@@ -0,0 +1,37 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.parser;
+
+/**
+ * Thrown when a message is not a SOAP Envelope that is valid according to the
+ * SOAP Envelope schema.
+ * 
+ * @author carolina
+ * 
+ */
+public class EnvelopeValidationException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public EnvelopeValidationException(String message) {
+		super(message);
+	}
+
+	public EnvelopeValidationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
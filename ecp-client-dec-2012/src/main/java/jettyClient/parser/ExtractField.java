@@ -21,10 +21,16 @@ import java.util.List;
 
 import javax.xml.namespace.QName;
 
+import jettyClient.EnvelopeHandling.EnvelopeParts;
+
+import org.joda.time.DateTime;
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.AuthnStatement;
 import org.opensaml.saml.saml2.core.IDPEntry;
 import org.opensaml.saml.saml2.core.IDPList;
 import org.opensaml.saml.saml2.ecp.Response;
+import org.opensaml.soap.soap11.Body;
 import org.opensaml.soap.soap11.Header;
 import org.opensaml.soap.wssecurity.BinarySecurityToken;
 import org.opensaml.soap.wssecurity.Security;
@@ -76,6 +82,61 @@ public class ExtractField {
 		return responseConsumerURL;
 	}
 
+	/**
+	 * Read the header fields the ECP flow routes on from an Envelope that has
+	 * already been parsed into EnvelopeParts, so that a parsed message is not
+	 * tokenized again by the HeaderScanner.
+	 * 
+	 * Only the relay information that the object model keeps is filled in
+	 * (the Envelope and Body prefixes), since a parsed message is not relayed
+	 * as bytes.
+	 * 
+	 * @param envelopeParts
+	 * @return The header fields, or null if there are no envelope parts.
+	 */
+	public static HeaderFields extractHeaderFields(EnvelopeParts envelopeParts) {
+
+		if (envelopeParts == null)
+			return null;
+
+		HeaderFields fields = new HeaderFields();
+		Header header = envelopeParts.getHeader();
+		Body body = envelopeParts.getBody();
+
+		if (envelopeParts.getEnvelope() != null)
+			fields.setEnvelopePrefix(envelopeParts.getEnvelope()
+					.getElementQName().getPrefix());
+
+		if (header != null) {
+			for (XMLObject xmlObject : header.getUnknownXMLObjects()) {
+				if (xmlObject instanceof Request) {
+					// PAOS Request (from the SP)
+					fields.setResponseConsumerURL(((Request) xmlObject)
+							.getResponseConsumerURL());
+				} else if (xmlObject instanceof Response) {
+					// ECP Response (from the IdP)
+					fields.setAssertionConsumerServiceURL(((Response) xmlObject)
+							.getAssertionConsumerServiceURL());
+				} else if (xmlObject instanceof org.opensaml.saml.saml2.ecp.Request) {
+					// IDPList of an ECP Request (from the SP)
+					IDPList idpList = ((org.opensaml.saml.saml2.ecp.Request) xmlObject)
+							.getIDPList();
+					if (idpList != null)
+						for (IDPEntry idpEntry : idpList.getIDPEntrys())
+							fields.addIdpEntry(idpEntry);
+				}
+			}
+		}
+
+		if (body != null) {
+			fields.setBodyPrefix(body.getElementQName().getPrefix());
+			if (!body.getUnknownXMLObjects().isEmpty())
+				fields.setFirstBodyElement(body.getUnknownXMLObjects().get(0)
+						.getElementQName());
+		}
+		return fields;
+	}
+
 	/**
 	 * Attempt to extract a preferred IdP from the Request header block that was
 	 * sent with the AuthnRequest SOAP Envelope.
@@ -163,4 +224,56 @@ public class ExtractField {
 		return null;
 	}
 	
+	/**
+	 * Extract the time at which the session given by an IdP Response ends:
+	 * the earliest Conditions NotOnOrAfter or AuthnStatement
+	 * SessionNotOnOrAfter of the assertions in the Response.
+	 * 
+	 * Returns null if the Body holds no Response, or the Response gives no
+	 * expiry (e.g. because its assertions are encrypted).
+	 * 
+	 * @param body
+	 * @return
+	 */
+	public static DateTime extractSessionExpiry(Body body) {
+
+		DateTime expiry = null;
+
+		if (body == null)
+			return null;
+
+		for (XMLObject xmlObject : body.getUnknownXMLObjects()) {
+			if (!(xmlObject instanceof org.opensaml.saml.saml2.core.Response))
+				continue;
+
+			for (Assertion assertion : ((org.opensaml.saml.saml2.core.Response) xmlObject)
+					.getAssertions()) {
+
+				if (assertion.getConditions() != null)
+					expiry = earliest(expiry, assertion.getConditions()
+							.getNotOnOrAfter());
+
+				for (AuthnStatement statement : assertion.getAuthnStatements())
+					expiry = earliest(expiry,
+							statement.getSessionNotOnOrAfter());
+			}
+		}
+		return expiry;
+	}
+
+	/**
+	 * Return the earliest of two points in time, either of which can be null.
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static DateTime earliest(DateTime a, DateTime b) {
+		if (a == null)
+			return b;
+		if (b == null)
+			return a;
+		return a.isBefore(b) ? a : b;
+	}
+
 }
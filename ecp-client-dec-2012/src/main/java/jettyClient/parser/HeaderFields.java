@@ -0,0 +1,214 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.opensaml.soap.soap11.Fault;
+
+/**
+ * HeaderFields holds the SOAP header fields the ECP flow routes on: the
+ * responseConsumerURL of a PAOS Request, the AssertionConsumerServiceURL of
+ * an ECP Response and the IDPList entries of an ECP Request.
+ * 
+ * It also holds what is needed to relay the Body as bytes: the prefix and
+ * namespace declarations of the Envelope element, the prefix of the Body
+ * element, the first element in the Body, the byte range of the Body element
+ * and the encoding of the message.
+ * 
+ * Filled in by the HeaderScanner, or by ExtractField.extractHeaderFields
+ * from an Envelope that has already been parsed.
+ * 
+ * @author carolina
+ * 
+ */
+public class HeaderFields {
+
+	private String responseConsumerURL = null;
+	private String assertionConsumerServiceURL = null;
+	private final List<IDPEntry> idpEntries = new ArrayList<IDPEntry>();
+
+	/* Relay information */
+	private String envelopePrefix = "";
+	private final Map<String, String> envelopeNamespaces = new LinkedHashMap<String, String>();
+	private String bodyPrefix = null;
+	private QName firstBodyElement = null;
+	private String encoding = null;
+	private int bodyStart = -1;
+	private int bodyEnd = -1;
+
+	/**
+	 * Returns the responseConsumerURL from a PAOS Request header block (sent
+	 * by the SP) or else the AssertionConsumerServiceURL from an ECP Response
+	 * header block (sent by the IdP). Returns an empty string if the header
+	 * contained neither.
+	 * 
+	 * Same as ExtractField.extractAssertionConsumerURL.
+	 * 
+	 * @return
+	 */
+	public String getAssertionConsumerURL() {
+		if (responseConsumerURL != null)
+			return responseConsumerURL;
+		if (assertionConsumerServiceURL != null)
+			return assertionConsumerServiceURL;
+		return "";
+	}
+
+	/* Getters and setters */
+
+	public String getResponseConsumerURL() {
+		return responseConsumerURL;
+	}
+
+	public void setResponseConsumerURL(String responseConsumerURL) {
+		this.responseConsumerURL = responseConsumerURL;
+	}
+
+	public String getAssertionConsumerServiceURL() {
+		return assertionConsumerServiceURL;
+	}
+
+	public void setAssertionConsumerServiceURL(
+			String assertionConsumerServiceURL) {
+		this.assertionConsumerServiceURL = assertionConsumerServiceURL;
+	}
+
+	/**
+	 * Returns the IdP entries from the IDPList of an ECP Request header block.
+	 * Empty if the SP sent no IDPList.
+	 * 
+	 * @return
+	 */
+	public List<IDPEntry> getIdpEntries() {
+		return idpEntries;
+	}
+
+	public void addIdpEntry(IDPEntry idpEntry) {
+		idpEntries.add(idpEntry);
+	}
+
+	/**
+	 * Returns true if the Body holds a SOAP fault.
+	 * 
+	 * @return
+	 */
+	public boolean isSoapFault() {
+		return Fault.DEFAULT_ELEMENT_NAME.equals(firstBodyElement);
+	}
+
+	/**
+	 * Returns the prefix of the Envelope element, or an empty string if it is
+	 * in the default namespace.
+	 * 
+	 * @return
+	 */
+	public String getEnvelopePrefix() {
+		return envelopePrefix;
+	}
+
+	public void setEnvelopePrefix(String envelopePrefix) {
+		this.envelopePrefix = envelopePrefix == null ? "" : envelopePrefix;
+	}
+
+	/**
+	 * Returns the namespace declarations of the Envelope element, prefix to
+	 * namespace URI. The default namespace has an empty prefix.
+	 * 
+	 * @return
+	 */
+	public Map<String, String> getEnvelopeNamespaces() {
+		return envelopeNamespaces;
+	}
+
+	public void addEnvelopeNamespace(String prefix, String namespaceURI) {
+		envelopeNamespaces.put(prefix == null ? "" : prefix, namespaceURI);
+	}
+
+	/**
+	 * Returns the prefix of the Body element (empty string for the default
+	 * namespace), or null if the message had no Body.
+	 * 
+	 * @return
+	 */
+	public String getBodyPrefix() {
+		return bodyPrefix;
+	}
+
+	public void setBodyPrefix(String bodyPrefix) {
+		this.bodyPrefix = bodyPrefix == null ? "" : bodyPrefix;
+	}
+
+	/**
+	 * Returns the name of the first element in the Body, or null if the Body
+	 * is empty.
+	 * 
+	 * @return
+	 */
+	public QName getFirstBodyElement() {
+		return firstBodyElement;
+	}
+
+	public void setFirstBodyElement(QName firstBodyElement) {
+		this.firstBodyElement = firstBodyElement;
+	}
+
+	/**
+	 * Returns the character encoding of the message, as declared or detected,
+	 * or null if unknown.
+	 * 
+	 * @return
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * Returns the byte offset of the '<' that starts the Body element in the
+	 * scanned message, or -1 if it was not located.
+	 * 
+	 * @return
+	 */
+	public int getBodyStart() {
+		return bodyStart;
+	}
+
+	/**
+	 * Returns the byte offset just after the Body element (after its end tag,
+	 * or after its start tag if it is empty) in the scanned message, or -1 if
+	 * it was not located.
+	 * 
+	 * @return
+	 */
+	public int getBodyEnd() {
+		return bodyEnd;
+	}
+
+	void setBodyRange(int bodyStart, int bodyEnd) {
+		this.bodyStart = bodyStart;
+		this.bodyEnd = bodyEnd;
+	}
+}
@@ -0,0 +1,333 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.opensaml.soap.soap11.Body;
+import org.opensaml.soap.soap11.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ecp.liberty.paos.Request;
+
+/**
+ * HeaderScanner reads the SOAP header fields the ECP flow routes on
+ * (responseConsumerURL, AssertionConsumerServiceURL and the IDPList) straight
+ * from the message bytes with a StAX reader.
+ * 
+ * The Body is only tokenized to find where it ends, and nothing is
+ * unmarshalled into OpenSAML objects except the IDPEntries. The scanner also
+ * records what the RelayEnvelope needs to splice the Body into a new Envelope
+ * as bytes, including the byte range of the Body element.
+ * 
+ * @author carolina
+ * 
+ */
+public class HeaderScanner {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Configured once; creating readers from it is thread-safe.
+	private final static XMLInputFactory inputFactory = createInputFactory();
+
+	private final static byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB,
+			(byte) 0xBF };
+
+	/**
+	 * Scan the header of a SOAP message.
+	 * 
+	 * Returns null if the message is not XML with a SOAP Envelope root.
+	 * 
+	 * The message is read as UTF-8, so that the reader reports its location in
+	 * characters, which are then mapped back to byte offsets for the Body.
+	 * 
+	 * @param message
+	 * @return The header fields found before the Body.
+	 */
+	public static HeaderFields scan(byte[] message) {
+
+		if (message == null)
+			return null;
+
+		// Skip a byte order mark, the reader does not count it.
+		int base = hasByteOrderMark(message) ? UTF8_BOM.length : 0;
+
+		XMLStreamReader reader = null;
+
+		try {
+			reader = inputFactory.createXMLStreamReader(new InputStreamReader(
+					new ByteArrayInputStream(message, base, message.length
+							- base), StandardCharsets.UTF_8));
+			return scan(reader, message, base);
+		} catch (XMLStreamException e) {
+			logger.debug("Could not scan the SOAP header: " + e.getMessage());
+		} finally {
+			close(reader);
+		}
+		return null;
+	}
+
+	/**
+	 * Read header fields until the Body starts, then read through the Body to
+	 * find where it ends.
+	 * 
+	 * @param reader
+	 * @param message
+	 *            The bytes the reader reads.
+	 * @param base
+	 *            Byte offset the reader started at.
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private static HeaderFields scan(XMLStreamReader reader, byte[] message,
+			int base) throws XMLStreamException {
+
+		// Move to the root element.
+		reader.nextTag();
+
+		if (!Envelope.DEFAULT_ELEMENT_NAME.equals(reader.getName())) {
+			logger.debug("The root element is not a SOAP Envelope.");
+			return null;
+		}
+
+		HeaderFields fields = new HeaderFields();
+
+		// Everything the Body may depend on is declared on the Envelope.
+		fields.setEnvelopePrefix(reader.getPrefix());
+		for (int i = 0; i < reader.getNamespaceCount(); i++)
+			fields.addEnvelopeNamespace(reader.getNamespacePrefix(i),
+					reader.getNamespaceURI(i));
+
+		fields.setEncoding(reader.getCharacterEncodingScheme());
+
+		while (reader.hasNext()) {
+
+			if (reader.next() != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			QName name = reader.getName();
+
+			if (Body.DEFAULT_ELEMENT_NAME.equals(name)) {
+				// Everything after this is the body. Only look at the name of
+				// its first element (a SOAP fault?) and where it ends.
+				fields.setBodyPrefix(reader.getPrefix());
+				int startTagEnd = reader.getLocation().getCharacterOffset();
+				int bodyEnd = scanBody(reader, fields);
+				locateBody(message, base, startTagEnd, bodyEnd, fields);
+				break;
+			} else if (Request.DEFAULT_ELEMENT_NAME.equals(name)) {
+				// PAOS Request (from the SP)
+				fields.setResponseConsumerURL(reader.getAttributeValue(null,
+						Request.RESPONSE_CONSUMER_URL_ATTRIB_NAME));
+			} else if (org.opensaml.saml.saml2.ecp.Response.DEFAULT_ELEMENT_NAME
+					.equals(name)) {
+				// ECP Response (from the IdP)
+				fields.setAssertionConsumerServiceURL(reader
+						.getAttributeValue(
+								null,
+								org.opensaml.saml.saml2.ecp.Response.ASSERTION_CONSUMER_SERVICE_URL_ATTRIB_NAME));
+			} else if (IDPEntry.DEFAULT_ELEMENT_NAME.equals(name)) {
+				// IDPList entry of an ECP Request (from the SP)
+				fields.addIdpEntry(buildIdpEntry(reader));
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Read to the end of the Body. Comments, CDATA sections and nested
+	 * elements are tokenized by the reader, so text that looks like a Body tag
+	 * inside them is not taken for one.
+	 * 
+	 * @param reader
+	 *            Positioned on the Body start element.
+	 * @param fields
+	 * @return The character offset just after the Body end tag, or -1.
+	 * @throws XMLStreamException
+	 */
+	private static int scanBody(XMLStreamReader reader, HeaderFields fields)
+			throws XMLStreamException {
+
+		int depth = 0;
+
+		while (reader.hasNext()) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if (depth == 0 && fields.getFirstBodyElement() == null)
+					fields.setFirstBodyElement(reader.getName());
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (depth == 0)
+					return reader.getLocation().getCharacterOffset();
+				depth--;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Turn the character offsets of the Body into byte offsets in the message.
+	 * 
+	 * The reader reports the offset just after the tag of the current event.
+	 * Both offsets are checked to land just after a '>' in the message, so
+	 * a reader that reports locations differently leaves the Body unlocated
+	 * rather than sliced at the wrong place.
+	 * 
+	 * @param message
+	 * @param base
+	 *            Byte offset the reader started at.
+	 * @param startTagEnd
+	 *            Character offset just after the Body start tag.
+	 * @param bodyEnd
+	 *            Character offset just after the Body end tag.
+	 * @param fields
+	 */
+	private static void locateBody(byte[] message, int base, int startTagEnd,
+			int bodyEnd, HeaderFields fields) {
+
+		if (startTagEnd < 0 || bodyEnd < startTagEnd)
+			return;
+
+		int startTagEndByte = -1;
+		int bodyEndByte = -1;
+		int chars = 0;
+
+		for (int i = base; i <= message.length;) {
+			if (chars == startTagEnd)
+				startTagEndByte = i;
+			if (chars == bodyEnd) {
+				bodyEndByte = i;
+				break;
+			}
+			if (i == message.length)
+				break;
+			int length = sequenceLength(message[i]);
+			// Characters outside the BMP are two chars in Java.
+			chars += length == 4 ? 2 : 1;
+			i += length;
+		}
+
+		if (startTagEndByte <= base || bodyEndByte <= base
+				|| message[startTagEndByte - 1] != '>'
+				|| message[bodyEndByte - 1] != '>') {
+			logger.debug("Could not locate the Body in the message.");
+			return;
+		}
+
+		// A start tag contains no '<' other than the one it starts with.
+		int start = startTagEndByte - 1;
+		while (start >= base && message[start] != '<')
+			start--;
+
+		if (start >= base)
+			fields.setBodyRange(start, bodyEndByte);
+	}
+
+	/**
+	 * The number of bytes in the UTF-8 sequence that starts with a byte.
+	 * 
+	 * @param lead
+	 * @return
+	 */
+	private static int sequenceLength(byte lead) {
+		if ((lead & 0x80) == 0)
+			return 1;
+		if ((lead & 0xE0) == 0xC0)
+			return 2;
+		if ((lead & 0xF0) == 0xE0)
+			return 3;
+		if ((lead & 0xF8) == 0xF0)
+			return 4;
+		// Not a lead byte; the decoder replaces it with one character.
+		return 1;
+	}
+
+	private static boolean hasByteOrderMark(byte[] message) {
+		if (message.length < UTF8_BOM.length)
+			return false;
+		for (int i = 0; i < UTF8_BOM.length; i++)
+			if (message[i] != UTF8_BOM[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Build an IDPEntry from the attributes of an IDPEntry start element.
+	 * 
+	 * @param reader
+	 * @return
+	 */
+	private static IDPEntry buildIdpEntry(XMLStreamReader reader) {
+
+		IDPEntry entry = (IDPEntry) ParseHelper
+				.buildObject(IDPEntry.DEFAULT_ELEMENT_NAME);
+
+		entry.setProviderID(reader.getAttributeValue(null,
+				IDPEntry.PROVIDER_ID_ATTRIB_NAME));
+		entry.setName(reader.getAttributeValue(null,
+				IDPEntry.NAME_ATTRIB_NAME));
+		entry.setLoc(reader.getAttributeValue(null, IDPEntry.LOC_ATTRIB_NAME));
+
+		return entry;
+	}
+
+	/**
+	 * Create a namespace aware StAX factory that does not resolve DTDs or
+	 * external entities.
+	 * 
+	 * @return
+	 */
+	private static XMLInputFactory createInputFactory() {
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+
+		return factory;
+	}
+
+	/**
+	 * Close a reader, if there is one.
+	 * 
+	 * @param reader
+	 */
+	private static void close(XMLStreamReader reader) {
+		if (reader == null)
+			return;
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			logger.debug("Could not close the XML reader.");
+		}
+	}
+}
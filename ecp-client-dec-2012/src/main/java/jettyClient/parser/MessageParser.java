@@ -18,9 +18,15 @@ package jettyClient.parser;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import jettyClient.EnvelopeHandling.EnvelopeParts;
+import jettyClient.metrics.Metrics;
+import jettyClient.metrics.Timer;
 import jettyClient.simpleClient.ClientConfiguration;
+import net.shibboleth.utilities.java.support.xml.BasicParserPool;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
 
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.Marshaller;
@@ -28,6 +34,8 @@ import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.soap.soap11.Body;
 import org.opensaml.soap.soap11.Envelope;
 import org.opensaml.soap.soap11.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.ls.DOMImplementationLS;
@@ -35,35 +43,102 @@ import org.w3c.dom.ls.LSOutput;
 
 public class MessageParser {
 
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Time spent parsing and validating messages. Messages are validated
+	// while they are parsed, so there is no separate validation timer.
+	private final static Timer parseTimer = Metrics.timer("ecp_parse");
+
 	/**
 	 * Turns a SOAP message XML into a SOAP Envelope and splits it into a
 	 * Header, a Body and an empty Envelope. These items are stored in the
 	 * returned EnvelopeParts object.
 	 * 
+	 * Returns null if the message is not a valid SOAP Envelope.
+	 * 
 	 * @param message
-	 * @param schemaFilePath
 	 * @return A SOAP Envelope in parts
 	 */
 	public static EnvelopeParts parseMessage(byte[] message) {
 
-		if (message != null) {
+		try {
+			return parseValidatedMessage(message);
+		} catch (EnvelopeValidationException e) {
+			logger.debug("Could not parse envelope: " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Validates a SOAP message XML against the SOAP Envelope schema while it is
+	 * parsed into a DOM, and splits the Envelope into a Header, a Body and an
+	 * empty Envelope. The message is only tokenized once.
+	 * 
+	 * The schema-aware parser pool rejects documents that do not validate, so
+	 * a separate validation pass is not needed.
+	 * 
+	 * @param message
+	 * @return A SOAP Envelope in parts
+	 * @throws EnvelopeValidationException
+	 *             If the message is not a valid SOAP Envelope.
+	 */
+	public static EnvelopeParts parseValidatedMessage(byte[] message)
+			throws EnvelopeValidationException {
+
+		if (message == null)
+			throw new EnvelopeValidationException("No message to parse.");
+
+		return parseValidatedMessage(new ByteArrayInputStream(message));
+	}
+
+	/**
+	 * Validates a SOAP message read from a stream while it is parsed, and
+	 * splits the Envelope into a Header, a Body and an empty Envelope.
+	 * 
+	 * @param message
+	 * @return A SOAP Envelope in parts
+	 * @throws EnvelopeValidationException
+	 *             If the message is not a valid SOAP Envelope.
+	 */
+	public static EnvelopeParts parseValidatedMessage(InputStream message)
+			throws EnvelopeValidationException {
+
+		long start = System.nanoTime();
+
+		try {
+			if (message == null)
+				throw new EnvelopeValidationException("No message to parse.");
 
 			String schemaFilePath = ClientConfiguration.soapEnvelopeSchemaLocation;
-			EnvelopeParts envelopeParts = null;
-			Element element = null;
+			BasicParserPool pool = SchemaRegistry.getParserPool(schemaFilePath);
 
-			// Attempt to extract the element specified by the schema from a
-			// message.
-			element = ParseHelper.extractElement(new ByteArrayInputStream(
-					message), schemaFilePath);
+			if (pool == null)
+				throw new EnvelopeValidationException("Schema " + schemaFilePath
+						+ " is not available.");
+
+			Document document = null;
 
-			// Store the Envelope in parts. If the parsing went well.
-			if (element != null) {
-				envelopeParts = storeEnvelopeParts(element);
+			try {
+				document = pool.parse(message);
+			} catch (XMLParserException e) {
+				throw new EnvelopeValidationException(
+						"The message is not valid SOAP Envelope XML.", e);
 			}
-			return envelopeParts;
+
+			Element element = document.getDocumentElement();
+
+			// The schema also accepts a lone Header, Body or Fault as root.
+			if (!Envelope.DEFAULT_ELEMENT_NAME.equals(ParseHelper
+					.getDefaultElementName(element)))
+				throw new EnvelopeValidationException(
+						"The root element is not a SOAP Envelope.");
+
+			return storeEnvelopeParts(element);
+		} finally {
+			parseTimer.record(start);
 		}
-		return null;
 	}
 
 	/**
@@ -157,11 +232,24 @@ public class MessageParser {
 	public static ByteArrayOutputStream envelopeToStream(Envelope envelope) {
 
 		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		SerializeSupport.writeNode(ParseHelper.marshall(envelope), stream);
+		writeEnvelope(envelope, stream);
 
 		return stream;
 	}
 
+	/**
+	 * Marshall the envelope given as parameter and serialize its DOM straight
+	 * into a stream, such as a pooled buffer, without an intermediate array.
+	 * 
+	 * @param envelope
+	 *            A SOAP Envelope
+	 * @param stream
+	 *            The stream the Envelope is written to. It is not closed.
+	 */
+	public static void writeEnvelope(Envelope envelope, OutputStream stream) {
+		SerializeSupport.writeNode(ParseHelper.marshall(envelope), stream);
+	}
+
 	/**
 	 * Create a ByteArrayOutputStream and write the envelope given as parameter
 	 * to this stream.
@@ -0,0 +1,172 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.parser;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.SingleSignOnService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MetadataStreamReader finds the ECP endpoints in SAML metadata with a StAX
+ * reader, one EntityDescriptor at a time.
+ * 
+ * The metadata can be a single EntityDescriptor or an EntitiesDescriptor
+ * aggregate, nested to any depth. Only the entityID and the SOAP binding
+ * SingleSignOnService of a SAML 2 IDPSSODescriptor are kept, so memory use
+ * does not grow with the size of the metadata, only with the number of IdPs
+ * found.
+ * 
+ * The metadata is not schema-validated; only well-formedness is checked.
+ * 
+ * @author carolina
+ * 
+ */
+public class MetadataStreamReader {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Configured once; creating readers from it is thread-safe.
+	private final static XMLInputFactory inputFactory = createInputFactory();
+
+	/**
+	 * Read the ECP endpoints from metadata. The stream is not closed.
+	 * 
+	 * @param metadata
+	 * @return One endpoint per IdP with ECP support, in document order.
+	 * @throws XMLStreamException
+	 *             If the metadata is not well-formed or could not be read. No
+	 *             endpoints are returned then, not even those read before the
+	 *             error.
+	 */
+	public static List<EcpEndpoint> read(InputStream metadata)
+			throws XMLStreamException {
+
+		List<EcpEndpoint> endpoints = new ArrayList<EcpEndpoint>();
+		XMLStreamReader reader = null;
+
+		try {
+			reader = inputFactory.createXMLStreamReader(metadata);
+			read(reader, endpoints);
+		} finally {
+			close(reader);
+		}
+		return endpoints;
+	}
+
+	/**
+	 * Walk the metadata, collecting endpoints.
+	 * 
+	 * @param reader
+	 * @param endpoints
+	 * @throws XMLStreamException
+	 */
+	private static void read(XMLStreamReader reader,
+			List<EcpEndpoint> endpoints) throws XMLStreamException {
+
+		// State of the EntityDescriptor being read.
+		String entityID = null;
+		boolean inIdpDescriptor = false;
+		String location = null;
+
+		while (reader.hasNext()) {
+
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				QName name = reader.getName();
+
+				if (EntityDescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+					entityID = reader.getAttributeValue(null,
+							EntityDescriptor.ENTITY_ID_ATTRIB_NAME);
+					location = null;
+
+				} else if (IDPSSODescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+					String protocols = reader.getAttributeValue(null,
+							"protocolSupportEnumeration");
+					inIdpDescriptor = protocols != null
+							&& protocols.contains(SAMLConstants.SAML20P_NS);
+
+				} else if (inIdpDescriptor
+						&& location == null
+						&& SingleSignOnService.DEFAULT_ELEMENT_NAME
+								.equals(name)
+						&& SAMLConstants.SAML2_SOAP11_BINDING_URI.equals(reader
+								.getAttributeValue(null, "Binding"))) {
+					location = reader.getAttributeValue(null, "Location");
+				}
+
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				QName name = reader.getName();
+
+				if (IDPSSODescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+					inIdpDescriptor = false;
+
+				} else if (EntityDescriptor.DEFAULT_ELEMENT_NAME.equals(name)) {
+					if (entityID != null && location != null)
+						endpoints.add(new EcpEndpoint(entityID, location));
+					entityID = null;
+					location = null;
+				}
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+		// Text is never read, so it does not have to be joined.
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+
+		return factory;
+	}
+
+	/**
+	 * Close a reader, if there is one.
+	 * 
+	 * @param reader
+	 */
+	private static void close(XMLStreamReader reader) {
+		if (reader == null)
+			return;
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			logger.debug("Could not close the XML reader.");
+		}
+	}
+}
@@ -16,19 +16,14 @@
 
 package jettyClient.parser;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
+import java.io.InputStream;
 import javax.xml.namespace.QName;
-import javax.xml.validation.Schema;
 
 import jettyClient.simpleClient.ClientConfiguration;
 
-import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
 import net.shibboleth.utilities.java.support.xml.BasicParserPool;
-import net.shibboleth.utilities.java.support.xml.SchemaBuilder;
 import net.shibboleth.utilities.java.support.xml.SerializeSupport;
 import net.shibboleth.utilities.java.support.xml.XMLParserException;
-import net.shibboleth.utilities.java.support.xml.SchemaBuilder.SchemaLanguage;
 
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
@@ -43,7 +38,6 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.xml.sax.SAXException;
 
 public class ParseHelper {
 	
@@ -139,56 +133,17 @@ public class ParseHelper {
 	}
 
 	/**
-	 * Create, configure and initialize a parser for a given schema.
-	 * 
-	 * @param schemaFilePath
-	 * @return
-	 */
-	private static BasicParserPool createBasicParserPool(String schemaFilePath) {
-
-		BasicParserPool pool = null;
-		Schema schema = null;
-		File file = new File(schemaFilePath);
-
-		if (file.exists()) {
-
-			try {
-				schema = SchemaBuilder.buildSchema(SchemaLanguage.XML,
-						file);
-			} catch (SAXException e) {
-				logger.debug("SAXException when parsing file " +schemaFilePath);
-			}
-
-			// Configure pool and set schema as given in parameter.
-			pool = new BasicParserPool();
-			pool.setIgnoreElementContentWhitespace(true);
-			pool.setNamespaceAware(true);
-			pool.setSchema(schema);
-
-			try {
-				pool.initialize(); // initialize
-			} catch (ComponentInitializationException e) {
-				logger.debug("Could not initialize parserpool using schema " +schema +".");
-			}
-
-		} else {
-			logger.debug("File " +schemaFilePath +" not found.");	
-		}
-		return pool;
-	}
-
-	/**
-	 * Attempt to parse an element from text stored in a byte array, using a
-	 * schema from schemafilepath.
+	 * Attempt to parse an element from a stream (a byte array or a mapped
+	 * file), using a schema from schemafilepath.
 	 * 
 	 * @param bytes
 	 * @param schemaFilePath
 	 * @return
 	 */
-	public static Element extractElement(ByteArrayInputStream inputStream, String schemaFilePath) {
-		// Create parser pool for the schema. (e.g. SOAP Envelope,
+	public static Element extractElement(InputStream inputStream, String schemaFilePath) {
+		// Get the shared parser pool for the schema. (e.g. SOAP Envelope,
 		// EntityDescriptor)
-		BasicParserPool pool = createBasicParserPool(schemaFilePath);
+		BasicParserPool pool = SchemaRegistry.getParserPool(schemaFilePath);
 		
 		if (pool == null) return null; // :(
 
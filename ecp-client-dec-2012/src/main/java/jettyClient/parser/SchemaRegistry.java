@@ -0,0 +1,170 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.parser;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.validation.Schema;
+
+import jettyClient.simpleClient.ClientConfiguration;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.BasicParserPool;
+import net.shibboleth.utilities.java.support.xml.SchemaBuilder;
+import net.shibboleth.utilities.java.support.xml.SchemaBuilder.SchemaLanguage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * SchemaRegistry keeps one compiled Schema and one initialized parser pool
+ * per schema file, so that a schema is compiled once per process instead of
+ * once per message.
+ *
+ * Both Schema and BasicParserPool are thread-safe, so the registered
+ * instances can be shared by every exchange.
+ *
+ * @author carolina
+ *
+ */
+public class SchemaRegistry {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Compiled schemas, keyed by schema file path.
+	private final static ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+	// Initialized parser pools, keyed by schema file path.
+	private final static ConcurrentMap<String, BasicParserPool> parserPools = new ConcurrentHashMap<String, BasicParserPool>();
+
+	/**
+	 * Compile the schemas and parser pools the client uses. Called once at
+	 * startup, so that no exchange has to pay for schema compilation.
+	 */
+	public static void initialize() {
+		getParserPool(ClientConfiguration.soapEnvelopeSchemaLocation);
+	}
+
+	/**
+	 * Return the compiled schema for a schema file. The schema is compiled the
+	 * first time it is asked for.
+	 *
+	 * Returns null if the schema file could not be compiled.
+	 *
+	 * @param schemaFilePath
+	 * @return A compiled Schema.
+	 */
+	public static Schema getSchema(String schemaFilePath) {
+
+		Schema schema = schemas.get(schemaFilePath);
+
+		if (schema == null) {
+			schema = buildSchema(schemaFilePath);
+
+			if (schema != null) {
+				// Another thread may have compiled the same schema meanwhile.
+				Schema existing = schemas.putIfAbsent(schemaFilePath, schema);
+				if (existing != null)
+					schema = existing;
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Return an initialized parser pool for a schema file. The pool is created
+	 * the first time it is asked for.
+	 *
+	 * Returns null if the schema could not be compiled or the pool could not
+	 * be initialized.
+	 *
+	 * @param schemaFilePath
+	 * @return A parser pool that validates against the schema.
+	 */
+	public static BasicParserPool getParserPool(String schemaFilePath) {
+
+		BasicParserPool pool = parserPools.get(schemaFilePath);
+
+		if (pool == null) {
+			pool = createBasicParserPool(schemaFilePath);
+
+			if (pool != null) {
+				BasicParserPool existing = parserPools.putIfAbsent(
+						schemaFilePath, pool);
+				if (existing != null)
+					pool = existing;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Compile a schema file.
+	 *
+	 * @param schemaFilePath
+	 * @return
+	 */
+	private static Schema buildSchema(String schemaFilePath) {
+
+		File file = new File(schemaFilePath);
+
+		if (file.exists() == false) {
+			logger.debug("File " + schemaFilePath + " not found.");
+			return null;
+		}
+
+		try {
+			return SchemaBuilder.buildSchema(SchemaLanguage.XML, file);
+		} catch (SAXException e) {
+			logger.debug("SAXException when parsing file " + schemaFilePath);
+		}
+		return null;
+	}
+
+	/**
+	 * Create, configure and initialize a parser for a given schema.
+	 *
+	 * @param schemaFilePath
+	 * @return
+	 */
+	private static BasicParserPool createBasicParserPool(String schemaFilePath) {
+
+		Schema schema = getSchema(schemaFilePath);
+
+		if (schema == null)
+			return null;
+
+		// Configure pool and set schema as given in parameter.
+		BasicParserPool pool = new BasicParserPool();
+		pool.setIgnoreElementContentWhitespace(true);
+		pool.setNamespaceAware(true);
+		pool.setSchema(schema);
+
+		try {
+			pool.initialize(); // initialize
+		} catch (ComponentInitializationException e) {
+			logger.debug("Could not initialize parserpool using schema "
+					+ schemaFilePath + ".");
+			return null;
+		}
+		return pool;
+	}
+}
@@ -16,9 +16,8 @@
 
 package jettyClient.parser;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
@@ -27,9 +26,6 @@ import javax.xml.validation.Validator;
 
 import jettyClient.simpleClient.ClientConfiguration;
 
-import net.shibboleth.utilities.java.support.xml.SchemaBuilder;
-import net.shibboleth.utilities.java.support.xml.SchemaBuilder.SchemaLanguage;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
@@ -50,19 +46,17 @@ public class ValidateXML {
 	 * @return
 	 */
 	
-	public static boolean isValid(ByteArrayInputStream responseStream, String schemaFilePath) {
+	public static boolean isValid(InputStream responseStream, String schemaFilePath) {
 		
 		Source xmlFile = new StreamSource(responseStream);		
-		Schema schema = null;
+		Schema schema = SchemaRegistry.getSchema(schemaFilePath);
 		
-		try {
-			schema = SchemaBuilder.buildSchema(SchemaLanguage.XML, new File(
-					schemaFilePath));
-		} catch (SAXException e) {
+		if (schema == null) {
 			logger.debug("Invalid schema given.");
 			return false;
 		}
 		
+		// Validators are not thread-safe, so each call gets its own.
 		Validator validator = schema.newValidator();
 		
 		try {
@@ -84,7 +78,7 @@ public class ValidateXML {
 	 * @param responseMessage
 	 * @return
 	 */
-	public static boolean isValidEnvelope(ByteArrayInputStream responseStream) {
+	public static boolean isValidEnvelope(InputStream responseStream) {
 		
 		String schemaFilePath = ClientConfiguration.soapEnvelopeSchemaLocation;
 		return isValid(responseStream, schemaFilePath);
@@ -95,7 +89,7 @@ public class ValidateXML {
 	 * @param responseMessage
 	 * @return
 	 */
-	public static boolean isValidEntityDescriptor(ByteArrayInputStream inputStream) {
+	public static boolean isValidEntityDescriptor(InputStream inputStream) {
 		String schemaFilePath = ClientConfiguration.metadataSchemaLocation;
 		return isValid(inputStream, schemaFilePath);
 	}
@@ -0,0 +1,198 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import jettyClient.paosClient.PaosClient;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.opensaml.soap.soap11.Body;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BatchLogin runs many ECP logins concurrently over one shared HttpClient.
+ * 
+ * Every login is chained on the asynchronous exchanges of the PaosClient,
+ * so no thread is parked while a login waits for a response. At most
+ * parallelism logins are in flight at the same time. Each job gets its own
+ * LoginResult, and the run as a whole is summarized in a BatchStats object.
+ * 
+ * A job must carry its credentials. Jobs without them fail at once instead
+ * of falling back to the console prompt.
+ * 
+ * @author carolina
+ * 
+ */
+public class BatchLogin {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final HttpClient httpClient;
+	private final int parallelism;
+	private final SessionCache sessionCache;
+
+	private BatchStats stats = null;
+
+	private boolean allowHttp = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param httpClient
+	 *            A started HttpClient, shared by every login.
+	 * @param parallelism
+	 *            The maximum number of logins in flight at the same time.
+	 */
+	public BatchLogin(HttpClient httpClient, int parallelism) {
+		this(httpClient, parallelism, null);
+	}
+
+	/**
+	 * Constructor. Logins are stored in the session cache, and a principal
+	 * with a valid cached session is not logged in again.
+	 * 
+	 * @param httpClient
+	 *            A started HttpClient, shared by every login.
+	 * @param parallelism
+	 *            The maximum number of logins in flight at the same time.
+	 * @param sessionCache
+	 *            Cache of completed logins. Can be null.
+	 */
+	public BatchLogin(HttpClient httpClient, int parallelism,
+			SessionCache sessionCache) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+
+		this.httpClient = httpClient;
+		this.parallelism = parallelism;
+		this.sessionCache = sessionCache;
+	}
+
+	/**
+	 * Run every job and wait for all of them to finish. The results are
+	 * returned in the same order as the jobs. If the calling thread is
+	 * interrupted, the jobs that were not started yet fail with the
+	 * InterruptedException.
+	 * 
+	 * @param jobs
+	 * @return One LoginResult per job.
+	 */
+	public List<LoginResult> run(List<LoginJob> jobs) {
+
+		List<CompletableFuture<LoginResult>> futures = new ArrayList<CompletableFuture<LoginResult>>(
+				jobs.size());
+
+		// A permit per login in flight, handed back when the login completes.
+		final Semaphore inFlight = new Semaphore(parallelism);
+		long start = System.nanoTime();
+
+		try {
+			for (LoginJob job : jobs) {
+				inFlight.acquire();
+				futures.add(login(job).whenComplete(
+						(result, error) -> inFlight.release()));
+			}
+		} catch (InterruptedException e) {
+			logger.error("Batch login was interrupted.");
+			Thread.currentThread().interrupt();
+
+			// Every job still gets its result.
+			for (LoginJob job : jobs.subList(futures.size(), jobs.size()))
+				futures.add(CompletableFuture.completedFuture(new LoginResult(
+						job, null, false, 0, e)));
+		}
+
+		// login() completes every future normally, failures included.
+		List<LoginResult> results = new ArrayList<LoginResult>(futures.size());
+		for (CompletableFuture<LoginResult> future : futures)
+			results.add(future.join());
+
+		stats = new BatchStats(results, System.nanoTime() - start);
+		logger.info("Batch login finished: " + stats);
+
+		return results;
+	}
+
+	/**
+	 * Allow plain http to http URLs, for logins against the local mock SP and
+	 * IdP. HTTPS is forced otherwise.
+	 * 
+	 * @param allowHttp
+	 */
+	public void setAllowHttp(boolean allowHttp) {
+		this.allowHttp = allowHttp;
+	}
+
+	/**
+	 * Returns the statistics of the latest run, or null if nothing has been
+	 * run yet.
+	 * 
+	 * @return
+	 */
+	public BatchStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Start the SP -> IdP -> SP flow for one job. The returned future is
+	 * always completed normally, with a failed LoginResult if the login did
+	 * not succeed.
+	 * 
+	 * @param job
+	 * @return
+	 */
+	private CompletableFuture<LoginResult> login(final LoginJob job) {
+
+		// Never fall back to the console prompt from a batch.
+		if (job.getPrincipal() == null || job.getCredentials() == null) {
+			logger.error("Login job for " + job.getSpURL()
+					+ " has no credentials.");
+			return CompletableFuture.completedFuture(new LoginResult(job,
+					null, false, 0, new IllegalArgumentException(
+							"The login job has no credentials.")));
+		}
+
+		ClientOptions options = new ClientOptions();
+		options.setSpURL(job.getSpURL());
+		options.setAllowHttp(allowHttp);
+
+		final long start = System.nanoTime();
+
+		return new Connections(sessionCache).accessResourceAsync(options,
+				job.getIdpEntry(), httpClient, job.getPrincipal(),
+				job.getCredentials()).handle((body, error) -> {
+			long duration = System.nanoTime() - start;
+
+			if (error != null) {
+				logger.error("Login as " + job.getPrincipal() + " failed: "
+						+ error);
+				return new LoginResult(job, null, false, duration, error);
+			}
+
+			boolean success = body != null
+					&& !PaosClient.containsSoapFault(body);
+
+			return new LoginResult(job, body, success, duration, null);
+		});
+	}
+}
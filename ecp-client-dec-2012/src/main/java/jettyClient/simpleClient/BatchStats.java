@@ -0,0 +1,144 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregate numbers for a BatchLogin run.
+ * 
+ * @author carolina
+ * 
+ */
+public class BatchStats {
+
+	private final int jobs;
+	private final int succeeded;
+	private final long wallTimeNanos;
+	private final long totalLoginNanos;
+	private final long maxLoginNanos;
+
+	// Login durations in ascending order, for percentiles.
+	private final long[] sortedLoginNanos;
+
+	/**
+	 * Compute the statistics of a run from its results.
+	 * 
+	 * @param results
+	 *            The results of every job in the run.
+	 * @param wallTimeNanos
+	 *            Time from the start of the run until the last job finished.
+	 */
+	public BatchStats(List<LoginResult> results, long wallTimeNanos) {
+
+		int succeeded = 0;
+		long total = 0;
+		long max = 0;
+		long[] durations = new long[results.size()];
+
+		for (int i = 0; i < durations.length; i++) {
+			LoginResult result = results.get(i);
+			if (result.isSuccess())
+				succeeded++;
+			total += result.getDurationNanos();
+			max = Math.max(max, result.getDurationNanos());
+			durations[i] = result.getDurationNanos();
+		}
+		Arrays.sort(durations);
+
+		this.jobs = results.size();
+		this.succeeded = succeeded;
+		this.wallTimeNanos = wallTimeNanos;
+		this.totalLoginNanos = total;
+		this.maxLoginNanos = max;
+		this.sortedLoginNanos = durations;
+	}
+
+	/* Getters */
+
+	public int getJobs() {
+		return jobs;
+	}
+
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	public int getFailed() {
+		return jobs - succeeded;
+	}
+
+	public long getWallTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(wallTimeNanos);
+	}
+
+	/**
+	 * Returns the mean duration of one login in milliseconds.
+	 * 
+	 * @return
+	 */
+	public double getMeanLoginMillis() {
+		if (jobs == 0)
+			return 0;
+		return totalLoginNanos / (double) jobs / 1000000;
+	}
+
+	public long getMaxLoginMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLoginNanos);
+	}
+
+	/**
+	 * Returns the login duration in milliseconds that the given percentage of
+	 * logins did not exceed (nearest rank), or 0 if there were no logins.
+	 * 
+	 * @param percentile
+	 *            A percentage between 0 and 100, e.g. 99.9
+	 * @return
+	 */
+	public double getPercentileMillis(double percentile) {
+		if (sortedLoginNanos.length == 0)
+			return 0;
+
+		int rank = (int) Math.ceil(percentile / 100 * sortedLoginNanos.length);
+		rank = Math.min(Math.max(rank, 1), sortedLoginNanos.length);
+
+		return sortedLoginNanos[rank - 1] / 1000000.0;
+	}
+
+	/**
+	 * Returns the number of logins finished per second of wall time.
+	 * 
+	 * @return
+	 */
+	public double getThroughput() {
+		if (wallTimeNanos == 0)
+			return 0;
+		return jobs / (wallTimeNanos / 1000000000.0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d logins (%d failed) in %d ms, %.1f logins/s, "
+						+ "mean %.1f ms, p50 %.1f ms, p90 %.1f ms, "
+						+ "p99 %.1f ms, max %d ms", jobs, getFailed(),
+				getWallTimeMillis(), getThroughput(), getMeanLoginMillis(),
+				getPercentileMillis(50), getPercentileMillis(90),
+				getPercentileMillis(99), getMaxLoginMillis());
+	}
+}
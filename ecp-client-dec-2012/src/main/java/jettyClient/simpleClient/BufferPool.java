@@ -0,0 +1,120 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.simpleClient;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * BufferPool keeps released PooledBuffers for reuse, so that the messages
+ * of every exchange are written into arrays that have already been
+ * allocated and grown to message size, instead of new ones.
+ * 
+ * The pool holds at most a fixed number of buffers, and buffers that have
+ * grown past bufferMaxRetainedSize are dropped instead of kept, so one very
+ * large response does not pin its memory. Safe to use from any thread.
+ * 
+ * @author carolina
+ * 
+ */
+public class BufferPool {
+
+	private final static BufferPool shared = new BufferPool(
+			ClientConfiguration.bufferPoolSize,
+			ClientConfiguration.bufferInitialSize,
+			ClientConfiguration.bufferMaxRetainedSize);
+
+	private final BlockingQueue<PooledBuffer> free;
+	private final int initialSize;
+	private final int maxRetainedSize;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param poolSize
+	 *            Most buffers kept for reuse.
+	 * @param initialSize
+	 *            Size of a new buffer (bytes).
+	 * @param maxRetainedSize
+	 *            Largest buffer kept for reuse (bytes).
+	 */
+	public BufferPool(int poolSize, int initialSize, int maxRetainedSize) {
+		this.free = new ArrayBlockingQueue<PooledBuffer>(poolSize);
+		this.initialSize = initialSize;
+		this.maxRetainedSize = maxRetainedSize;
+	}
+
+	/**
+	 * Returns the pool shared by all exchanges.
+	 * 
+	 * @return
+	 */
+	public static BufferPool shared() {
+		return shared;
+	}
+
+	/**
+	 * Borrow an empty buffer. Hand it back with PooledBuffer.release().
+	 * 
+	 * @return
+	 */
+	public PooledBuffer acquire() {
+
+		PooledBuffer buffer = free.poll();
+
+		if (buffer == null)
+			return new PooledBuffer(this, initialSize);
+
+		buffer.reuse();
+		return buffer;
+	}
+
+	/**
+	 * Borrow an empty buffer that can hold at least the given number of bytes
+	 * without growing. Sizes past the largest buffer the pool keeps are not
+	 * reserved up front; such a buffer grows as it is written to.
+	 * 
+	 * @param size
+	 *            Expected content size (bytes).
+	 * @return
+	 */
+	public PooledBuffer acquire(int size) {
+
+		PooledBuffer buffer = acquire();
+		buffer.reserve(Math.min(size, maxRetainedSize));
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of buffers waiting to be reused.
+	 * 
+	 * @return
+	 */
+	int available() {
+		return free.size();
+	}
+
+	/**
+	 * Take a buffer back, unless it is too large or the pool is full.
+	 * 
+	 * @param buffer
+	 */
+	void release(PooledBuffer buffer) {
+		if (buffer.capacity() <= maxRetainedSize)
+			free.offer(buffer);
+	}
+}
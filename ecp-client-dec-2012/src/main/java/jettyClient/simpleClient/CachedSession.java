@@ -0,0 +1,193 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import jettyClient.paosClient.CookieJar;
+import jettyClient.parser.ParseHelper;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.soap.soap11.Body;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A CachedSession holds what one completed login produced: the cookie jar
+ * with the SP session cookie and the Body of the Response the IdP sent.
+ * 
+ * The session is bound to the password it was created with. Only a salted
+ * hash of the password is kept, and a lookup only matches if the same
+ * password is given again.
+ * 
+ * The session keeps private copies of the cookies and of the Body (as
+ * serialized XML). Every login that reuses the session gets copies of its
+ * own, so that concurrent logins never share a CookieJar or an XMLObject.
+ * 
+ * @author carolina
+ * 
+ */
+public class CachedSession {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Password hashing: PBKDF2 with a random salt per session.
+	private final static String hashAlgorithm = "PBKDF2WithHmacSHA256";
+	private final static int hashIterations = 10000;
+	private final static int hashBits = 256;
+	private final static int saltBytes = 16;
+
+	private final static SecureRandom random = new SecureRandom();
+
+	private final byte[] salt;
+	private final byte[] credentialHash;
+	private final CookieJar cookieJar;
+	private final byte[] response;
+	private final long expiresAt;
+
+	/**
+	 * Constructor. Copies the cookie jar and serializes the Body, so that
+	 * later changes to either do not reach the cached session.
+	 * 
+	 * @param credentials
+	 *            The password the login was made with.
+	 * @param cookieJar
+	 *            Cookies of the login session.
+	 * @param response
+	 *            The Body of the IdP Response.
+	 * @param expiresAt
+	 *            When the session expires, in milliseconds since the epoch.
+	 */
+	public CachedSession(String credentials, CookieJar cookieJar,
+			Body response, long expiresAt) {
+
+		this.salt = new byte[saltBytes];
+		random.nextBytes(salt);
+
+		this.credentialHash = hash(credentials, salt);
+		this.cookieJar = cookieJar.copy();
+		this.response = serialize(response);
+		this.expiresAt = expiresAt;
+	}
+
+	/* Getters */
+
+	/**
+	 * Returns a copy of the cookie jar of the session, for one login.
+	 * 
+	 * @return
+	 */
+	public CookieJar getCookieJar() {
+		return cookieJar.copy();
+	}
+
+	/**
+	 * Returns a new copy of the Body of the IdP Response, for one login, or
+	 * null if it could not be read back.
+	 * 
+	 * @return
+	 */
+	public Body getResponse() {
+		try {
+			return (Body) XMLObjectSupport.unmarshallFromInputStream(
+					XMLObjectProviderRegistrySupport.getParserPool(),
+					new ByteArrayInputStream(response));
+		} catch (XMLParserException e) {
+			logger.debug("Could not parse the cached response.");
+		} catch (UnmarshallingException e) {
+			logger.debug("Could not unmarshall the cached response.");
+		}
+		return null;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * Returns true if the session has expired at the given time.
+	 * 
+	 * @param now
+	 *            Milliseconds since the epoch.
+	 * @return
+	 */
+	public boolean isExpired(long now) {
+		return now >= expiresAt;
+	}
+
+	/**
+	 * Returns true if the given password is the one the session was created
+	 * with. The hashes are compared in constant time.
+	 * 
+	 * @param credentials
+	 * @return
+	 */
+	public boolean matches(String credentials) {
+		if (credentials == null)
+			return false;
+		return MessageDigest.isEqual(credentialHash, hash(credentials, salt));
+	}
+
+	/**
+	 * Hash a password with a salt.
+	 * 
+	 * @param credentials
+	 * @param salt
+	 * @return
+	 */
+	private static byte[] hash(String credentials, byte[] salt) {
+
+		PBEKeySpec spec = new PBEKeySpec(credentials.toCharArray(), salt,
+				hashIterations, hashBits);
+
+		try {
+			return SecretKeyFactory.getInstance(hashAlgorithm)
+					.generateSecret(spec).getEncoded();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(hashAlgorithm + " is not available.", e);
+		} catch (InvalidKeySpecException e) {
+			throw new IllegalStateException("Could not hash the credentials.", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Serialize a Body to XML.
+	 * 
+	 * @param body
+	 * @return
+	 */
+	private static byte[] serialize(Body body) {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		SerializeSupport.writeNode(ParseHelper.marshall(body), stream);
+		return stream.toByteArray();
+	}
+}
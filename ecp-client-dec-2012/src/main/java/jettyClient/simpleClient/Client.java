@@ -35,6 +35,14 @@ public class Client {
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 
+	// Logins made by this client, reused while the SP session is valid.
+	private final SessionCache sessionCache = new SessionCache(
+			ClientConfiguration.sessionCacheSize,
+			ClientConfiguration.sessionLifetime);
+
+	// Connections kept open between logins. Created by the first login.
+	private ConnectionPool connectionPool = null;
+
 	/**
 	 * Access a resource at the given url.
 	 * 
@@ -43,19 +51,19 @@ public class Client {
 	
 	public void accessResource(ClientOptions options, IDPEntry idpEntry) {
 
-		HttpClient httpClient = getClient();
-
-		try {
-			httpClient.start();
-		} catch (Exception e) {
-			logger.debug("Could not start client.");
-		}
-		logger.debug("Client started");
+		HttpClient httpClient = getHttpClient(options);
 
 		// If there is an IdP
 		if (idpEntry != null) {
 
-			Connections connections = new Connections();
+			Connections connections = new Connections(sessionCache);
+
+			// Relay the messages as bytes instead of parsing them.
+			if (options.isRelay()) {
+				connections.relayResource(options, idpEntry, httpClient, null,
+						null);
+				return;
+			}
 
 			Body assertionResponse = connections.accessResource(options,
 					idpEntry, httpClient);
@@ -103,18 +111,38 @@ public class Client {
 	}
 
 	/**
-	 * Create and configure a Jetty Httpclient.
+	 * Returns the logins made by this client.
+	 * 
+	 * @return
+	 */
+	public SessionCache getSessionCache() {
+		return sessionCache;
+	}
+
+	/**
+	 * Close the pooled connections.
+	 */
+	public synchronized void stop() {
+		if (connectionPool != null) {
+			connectionPool.stop();
+			connectionPool = null;
+		}
+	}
+
+	/**
+	 * Return the pooled Jetty Httpclient, and create and start it the first
+	 * time. Later logins reuse its connections.
 	 * 
 	 * @return A HttpClient
 	 */
-	private HttpClient getClient() {
+	public synchronized HttpClient getHttpClient(ClientOptions options) {
 
-		HttpClient client = new HttpClient();
-		client.setIdleTimeout(1000);
-		client.setTimeout(100000); // STATUS_EXPIRED
-		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+		if (connectionPool == null) {
+			connectionPool = new ConnectionPool(options);
+			connectionPool.start();
+		}
 
-		return client;
+		return connectionPool.getHttpClient();
 	}
 
 }
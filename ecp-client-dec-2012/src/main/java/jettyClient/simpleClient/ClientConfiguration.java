@@ -27,6 +27,15 @@ public class ClientConfiguration {
 	
 	/* Metadata location*/
 	public static final String metadataFolder = "resources/metadata";
+	// Index of the IdPs in the metadata folder, rebuilt when files change.
+	public static final String metadataIndexFile = "resources/metadata.index";
+	// Metadata files larger than this (bytes) are memory-mapped, not read.
+	public static final long mappedFileThreshold = 8 * 1024 * 1024;
+	// Threads that index changed metadata files in parallel.
+	public static final int metadataLoadThreads = Runtime.getRuntime()
+			.availableProcessors();
+	// Quiet time after a metadata file changes before it is reloaded (ms).
+	public static final long metadataReloadDelay = 500;
 	
 	/* Schema files */
 	public static final String soapEnvelopeSchemaLocation = "resources/schema/soap-envelope.xsd";
@@ -35,8 +44,55 @@ public class ClientConfiguration {
 	// TEST (validates assertion XML)
 	public static final String assertionSchemaLocation = "resources/schema/saml-schema-assertion-2.0.xsd";
 	
+	/* Session cache */
+	public static final int sessionCacheSize = 1000;
+	// Lifetime of a session when the IdP Response gives no expiry (ms).
+	public static final long sessionLifetime = 5 * 60 * 1000;
+	
+	/* Connection pool */
+	public static final int maxConnectionsPerAddress = 32;
+	// Time an idle keep-alive connection is kept open (ms).
+	public static final long idleTimeout = 30 * 1000;
+	// Time an exchange may take before it expires (ms).
+	public static final long exchangeTimeout = 100 * 1000;
+	// Number and lifetime (s) of TLS sessions kept for resumption.
+	public static final int tlsSessionCacheSize = 100;
+	public static final int tlsSessionTimeout = 60 * 60;
+	// Threads that parse and store responses, so that Jetty's I/O threads
+	// only read and write the sockets.
+	public static final int responseThreads = Runtime.getRuntime()
+			.availableProcessors();
+	
+	/* Tracing */
+	// Traced logins are appended here as OTLP JSON, one line per login.
+	public static final String traceFile = "traces.jsonl";
+	public static final String traceServiceName = "simple-ecp-client";
+	
+	/* Message buffers */
+	// Buffers kept for reuse, their starting size and the largest size that
+	// is returned to the pool (bytes). Larger buffers are left to the GC.
+	public static final int bufferPoolSize = 64;
+	public static final int bufferInitialSize = 16 * 1024;
+	public static final int bufferMaxRetainedSize = 1024 * 1024;
+	
+	/* Daemon */
+	// The daemon only listens on the loopback interface.
+	public static final String daemonHost = "127.0.0.1";
+	public static final int daemonPort = 8099;
+	
 	/* Logger name */
 	public static final String logger = "defaultLogger";
+	// SOAP messages sent and received, see MessageCapture.
+	public static final String messageLogger = "messageLogger";
+	
+	/* Message capture */
+	// Capture one message in this many.
+	public static final int captureSampleEvery = 1;
+	// Most messages captured per second, the rest are counted and dropped.
+	public static final int captureMaxPerSecond = 20;
+	// Elements whose text is replaced before a message is logged.
+	public static final String[] captureRedactedElements = { "SignatureValue",
+			"X509Certificate", "CipherValue", "NameID", "AttributeValue" };
 	
 	/* Cli parameters */
 //	public static final String verbose = "verbose";
@@ -16,7 +16,25 @@
 
 package jettyClient.simpleClient;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import jettyClient.tracing.Span;
+
 import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.eclipse.jetty.http.HttpSchemes;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.BufferUtil;
+import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +43,26 @@ import org.slf4j.LoggerFactory;
  * can be edited to handle errors and callbacks originating from
  * attempts to send a request.
  * 
+ * The outcome of the exchange is also published through a
+ * CompletableFuture, so that a caller does not have to block in
+ * waitForDone().
+ * 
+ * The response content is collected in a PooledBuffer instead of the
+ * stream of ContentExchange, and read through views of it, so the parsers
+ * read the bytes as they were received. Like in ContentExchange, the buffer
+ * is sized from the Content-Length header and the content is decoded with
+ * the charset of the Content-Type header. A serialized request envelope can
+ * be sent from a PooledBuffer as well. release() hands the buffers back.
+ * 
+ * Buffers only go back to the pool after the request has been written and
+ * the response read in full. If the exchange expires or fails, Jetty may
+ * still be writing from the request array or reading into the response,
+ * so release() then leaves both buffers to the GC instead.
+ * 
+ * If the exchange is traced, the time of each callback is recorded and
+ * turned into connect, request write, server and response read spans when
+ * the response is complete.
+ * 
  * @author carolina
  *
  */
@@ -34,6 +72,36 @@ public class ClientExchange extends ContentExchange {
 	private final static Logger logger = LoggerFactory
 			.getLogger(ClientConfiguration.logger);
 	
+	// Completed with this exchange when a response has been received.
+	private final CompletableFuture<ClientExchange> completion = new CompletableFuture<ClientExchange>();
+	
+	// Response content. Null until content is received, and after release().
+	private PooledBuffer responseBuffer = null;
+	
+	// Request content, if it was serialized into a pooled buffer.
+	private PooledBuffer requestBuffer = null;
+	
+	// Set when the request has been written and the response read, so that
+	// Jetty no longer uses the buffers, and once they have been released.
+	private boolean requestComplete = false;
+	private boolean responseComplete = false;
+	private boolean released = false;
+	
+	// Content-Length of the response, if it was sent, and the charset of
+	// its Content-Type. UTF-8 is the default, as in ContentExchange.
+	private int responseLength = -1;
+	private Charset responseCharset = StandardCharsets.UTF_8;
+	
+	// Span of this exchange, and System.nanoTime() of its phases.
+	private Span span = Span.none();
+	private volatile long sentNanos = 0;
+	private volatile long committedNanos = 0;
+	private volatile long requestCompleteNanos = 0;
+	private volatile long responseStatusNanos = 0;
+	
+	// Whether the request was the first one sent over its connection.
+	private volatile boolean newConnection = false;
+	
 	public ClientExchange(Boolean cache_headers) {
 		super(cache_headers);
 	}
@@ -42,9 +110,244 @@ public class ClientExchange extends ContentExchange {
 		super();
 	}	
 	
+	/**
+	 * Returns a future that is completed with this exchange when the response
+	 * is complete, or completed exceptionally if the exchange fails.
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<ClientExchange> getCompletion() {
+		return completion;
+	}
+	
+	/**
+	 * Trace this exchange. Called right before the exchange is sent.
+	 * 
+	 * @param span
+	 */
+	public void setSpan(Span span) {
+		this.span = span;
+		sentNanos = System.nanoTime();
+	}
+	
+	public Span getSpan() {
+		return span;
+	}
+	
+	@Override
+	protected void onRequestCommitted() throws IOException {
+		committedNanos = System.nanoTime();
+		// The exchange is associated with its connection until it completes.
+		newConnection = ConnectionStats.record(this);
+		super.onRequestCommitted();
+	}
+	
+	@Override
+	protected void onRequestComplete() throws IOException {
+		requestCompleteNanos = System.nanoTime();
+		synchronized (this) {
+			requestComplete = true;
+		}
+		super.onRequestComplete();
+	}
+	
+	@Override
+	protected synchronized void onResponseStatus(Buffer version, int status,
+			Buffer reason) throws IOException {
+		responseStatusNanos = System.nanoTime();
+		super.onResponseStatus(version, status, reason);
+	}
+	
+	/**
+	 * Send the content of a pooled buffer as the request content. Jetty
+	 * writes from the buffer's array, and the buffer is handed back to the
+	 * pool by release().
+	 * 
+	 * @param buffer
+	 */
+	public synchronized void setRequestContent(PooledBuffer buffer) {
+		requestBuffer = buffer;
+		setRequestContent(new ByteArrayBuffer(buffer.array(), 0,
+				buffer.size(), Buffer.READONLY));
+	}
+	
+	@Override
+	protected synchronized void onResponseHeader(Buffer name, Buffer value)
+			throws IOException {
+		super.onResponseHeader(name, value);
+		
+		switch (HttpHeaders.CACHE.getOrdinal(name)) {
+		case HttpHeaders.CONTENT_LENGTH_ORDINAL:
+			responseLength = BufferUtil.toInt(value);
+			break;
+		case HttpHeaders.CONTENT_TYPE_ORDINAL:
+			String charset = MimeTypes.getCharsetFromContentType(value);
+			if (charset != null)
+				responseCharset = toCharset(charset);
+			break;
+		}
+	}
+	
+	/**
+	 * Returns the named charset, or UTF-8 if the name is not known.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	private static Charset toCharset(String name) {
+		try {
+			return Charset.forName(name);
+		} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			logger.debug("Unknown response charset " + name
+					+ ", using UTF-8.");
+			return StandardCharsets.UTF_8;
+		}
+	}
+	
+	@Override
+	protected synchronized void onResponseContent(Buffer content)
+			throws IOException {
+		// Content that arrives after release() is dropped.
+		if (released)
+			return;
+		if (responseBuffer == null)
+			responseBuffer = responseLength > 0 ? BufferPool.shared()
+					.acquire(responseLength) : BufferPool.shared().acquire();
+		content.writeTo(responseBuffer);
+	}
+	
+	@Override
+	protected synchronized void onRetry() throws IOException {
+		// Content and headers of a failed attempt are discarded, and the
+		// request is written again.
+		requestComplete = false;
+		responseLength = -1;
+		responseCharset = StandardCharsets.UTF_8;
+		if (responseBuffer != null)
+			responseBuffer.reset();
+		super.onRetry();
+	}
+	
+	/**
+	 * Returns a read-only view of the response content, or null if there was
+	 * none. Valid until release().
+	 * 
+	 * @return
+	 */
+	public synchronized ByteBuffer getResponseContentView() {
+		return responseBuffer != null ? responseBuffer.asByteBuffer() : null;
+	}
+	
+	/**
+	 * Returns a stream that reads the response content, or null if there was
+	 * none. Valid until release().
+	 * 
+	 * @return
+	 */
+	public synchronized InputStream getResponseContentStream() {
+		return responseBuffer != null ? responseBuffer.asInputStream() : null;
+	}
+	
+	/**
+	 * Returns a copy of the response content, for content that is kept after
+	 * the exchange.
+	 */
+	@Override
+	public synchronized byte[] getResponseContentBytes() {
+		return responseBuffer != null ? responseBuffer.toByteArray() : null;
+	}
+	
+	/**
+	 * Returns the response content decoded with the charset of the response.
+	 */
+	@Override
+	public synchronized String getResponseContent() {
+		if (responseBuffer == null)
+			return null;
+		return new String(responseBuffer.array(), 0, responseBuffer.size(),
+				responseCharset);
+	}
+	
+	/**
+	 * Let go of the request and response buffers, once the exchange is done.
+	 * They are handed back to the pool if the exchange completed normally,
+	 * and left to the GC otherwise. The views returned earlier must not be
+	 * used afterwards.
+	 */
+	public synchronized void release() {
+		
+		boolean reusable = requestComplete && responseComplete;
+		
+		if (requestBuffer != null && reusable)
+			requestBuffer.release();
+		if (responseBuffer != null && reusable)
+			responseBuffer.release();
+		
+		requestBuffer = null;
+		responseBuffer = null;
+		released = true;
+	}
+	
+	@Override
+	protected void onResponseComplete() throws IOException {
+		long completeNanos = System.nanoTime();
+		synchronized (this) {
+			responseComplete = true;
+		}
+		super.onResponseComplete();
+		tracePhases(newConnection, completeNanos);
+		completion.complete(this);
+	}
+	
+	/**
+	 * Add the phases of a completed exchange to its span. Jetty reports no
+	 * separate DNS or TLS events, so they are part of the connect phase, which
+	 * only includes a handshake if the exchange opened a new connection.
+	 * 
+	 * @param newConnection
+	 * @param completeNanos
+	 */
+	private void tracePhases(boolean newConnection, long completeNanos) {
+		
+		if (sentNanos == 0 || committedNanos == 0)
+			return;
+		
+		boolean tls = HttpSchemes.HTTPS_BUFFER.equalsIgnoreCase(getScheme());
+		
+		Span connect = span.child("connect", sentNanos, committedNanos);
+		connect.setAttribute("network.connection.new", newConnection);
+		connect.setAttribute("tls.handshake", newConnection && tls);
+		
+		if (requestCompleteNanos != 0) {
+			span.child("request.write", committedNanos, requestCompleteNanos);
+			
+			if (responseStatusNanos != 0) {
+				span.child("server", requestCompleteNanos, responseStatusNanos);
+				span.child("response.read", responseStatusNanos, completeNanos);
+			}
+		}
+	}
+	
 	@Override
 	protected void onConnectionFailed(Throwable x) {
 		System.out.println("Connection failed: " +x.toString());
 		logger.error("Connection failed: " +x.toString());
+		span.setError("Connection failed: " + x);
+		completion.completeExceptionally(x);
+	}
+	
+	@Override
+	protected void onException(Throwable x) {
+		logger.error("Exception in ContentExchange: " +x.toString());
+		span.setError(x.toString());
+		completion.completeExceptionally(x);
+	}
+	
+	@Override
+	protected void onExpire() {
+		logger.error("ContentExchange expired");
+		span.setError("ContentExchange expired");
+		completion.completeExceptionally(new TimeoutException(
+				"ContentExchange expired"));
 	}
 }
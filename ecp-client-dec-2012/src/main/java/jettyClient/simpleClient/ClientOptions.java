@@ -24,6 +24,13 @@ public class ClientOptions {
 	private URL spEndpoint = null;
 
 	private boolean verbose;
+	private boolean relay;
+	private boolean fastStart;
+	private boolean trace;
+	// Plain http to http URLs, for the mock SP and IdP only.
+	private boolean allowHttp;
+	private int maxConnectionsPerAddress = ClientConfiguration.maxConnectionsPerAddress;
+	private long idleTimeout = ClientConfiguration.idleTimeout;
 	private URL spURL;
 	
 	// The IDP URL is set in the Main class if the IDP-ID matches a metadata entry.
@@ -52,6 +59,48 @@ public class ClientOptions {
 		this.verbose = verbose;
 	}
 	
+	public boolean isRelay() {
+		return relay;
+	}
+	public void setRelay(boolean relay) {
+		this.relay = relay;
+	}
+	
+	public boolean isFastStart() {
+		return fastStart;
+	}
+	public void setFastStart(boolean fastStart) {
+		this.fastStart = fastStart;
+	}
+	
+	public boolean isTrace() {
+		return trace;
+	}
+	public void setTrace(boolean trace) {
+		this.trace = trace;
+	}
+	
+	public boolean isAllowHttp() {
+		return allowHttp;
+	}
+	public void setAllowHttp(boolean allowHttp) {
+		this.allowHttp = allowHttp;
+	}
+	
+	public int getMaxConnectionsPerAddress() {
+		return maxConnectionsPerAddress;
+	}
+	public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+	}
+	
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	
 	public String getIdpID() {
 		return idpID;
 	}
@@ -0,0 +1,121 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.simpleClient;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectionPool owns one long-lived HttpClient, whose keep-alive connections
+ * to the SPs and IdPs are reused by every login, so that a login does not
+ * pay for new TCP and TLS handshakes.
+ * 
+ * TLS sessions are cached, so that a connection that has to be reopened
+ * can resume its session with an abbreviated handshake.
+ * 
+ * @author carolina
+ * 
+ */
+public class ConnectionPool {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final HttpClient httpClient;
+
+	/**
+	 * Constructor. Uses the default settings from the ClientConfiguration.
+	 */
+	public ConnectionPool() {
+		this(ClientConfiguration.maxConnectionsPerAddress,
+				ClientConfiguration.idleTimeout);
+	}
+
+	/**
+	 * Constructor. Uses the connection settings given on the command line.
+	 * 
+	 * @param options
+	 */
+	public ConnectionPool(ClientOptions options) {
+		this(options.getMaxConnectionsPerAddress(), options.getIdleTimeout());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxConnectionsPerAddress
+	 *            Maximum number of connections to one SP or IdP.
+	 * @param idleTimeout
+	 *            Milliseconds an idle connection is kept open for reuse.
+	 */
+	public ConnectionPool(int maxConnectionsPerAddress, long idleTimeout) {
+
+		httpClient = new HttpClient();
+		httpClient.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+		httpClient.setMaxConnectionsPerAddress(maxConnectionsPerAddress);
+		httpClient.setIdleTimeout(idleTimeout);
+		httpClient.setTimeout(ClientConfiguration.exchangeTimeout); // STATUS_EXPIRED
+
+		// Keep TLS sessions for resumption.
+		SslContextFactory sslContextFactory = httpClient.getSslContextFactory();
+		sslContextFactory.setSessionCachingEnabled(true);
+		sslContextFactory
+				.setSslSessionCacheSize(ClientConfiguration.tlsSessionCacheSize);
+		sslContextFactory
+				.setSslSessionTimeout(ClientConfiguration.tlsSessionTimeout);
+	}
+
+	/**
+	 * Start the HttpClient. Returns false if it could not be started.
+	 * 
+	 * @return
+	 */
+	public boolean start() {
+		try {
+			httpClient.start();
+			logger.debug("Connection pool started");
+			return true;
+		} catch (Exception e) {
+			logger.debug("Could not start client.");
+		}
+		return false;
+	}
+
+	/**
+	 * Close every pooled connection and stop the HttpClient.
+	 */
+	public void stop() {
+		try {
+			httpClient.stop();
+		} catch (Exception e) {
+			logger.debug("Could not stop client.");
+		}
+		logger.info("Connections: " + ConnectionStats.summary());
+	}
+
+	/**
+	 * Returns the shared HttpClient. Only use it after start().
+	 * 
+	 * @return
+	 */
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+}
@@ -0,0 +1,193 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.simpleClient;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import jettyClient.metrics.Counter;
+import jettyClient.metrics.Metrics;
+
+import org.eclipse.jetty.client.AbstractHttpConnection;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.http.HttpSchemes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConnectionStats counts how many exchanges were sent over a new connection
+ * and how many reused a pooled keep-alive connection.
+ * 
+ * Every Jetty connection (AbstractHttpConnection) an exchange is sent over
+ * has a counter of the exchanges it carried: the first exchange opened the
+ * connection, later ones reused it. The counters are weakly keyed on the
+ * connection, so a counter goes away with its connection. Every new https
+ * connection costs a TLS handshake (full or resumed).
+ * 
+ * The counts are kept for the whole process, for every HttpClient, as the
+ * counters ecp_connections{reuse="new"|"reused"|"unknown"} and
+ * ecp_tls_connections in Metrics, so they are exported with the other
+ * meters (JMX, and the daemon's /metrics).
+ * 
+ * Jetty 8 has no public way to get the connection of an exchange, so it is
+ * read from the private field HttpExchange._connection. That is the only
+ * reflective access, in getConnection(). If the field cannot be read (another
+ * Jetty version, a security manager, a module that is not opened), the
+ * exchanges are counted as reuse="unknown" instead, and an info message is
+ * logged once when this class is loaded.
+ * 
+ * @author carolina
+ * 
+ */
+public class ConnectionStats {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	// Jetty 8 keeps the connection of an exchange in a private field, with
+	// no getter.
+	private final static Field connectionField = findConnectionField();
+
+	// Exchanges sent over each live connection.
+	private final static Map<AbstractHttpConnection, Long> exchangesPerConnection = new WeakHashMap<AbstractHttpConnection, Long>();
+
+	private final static Counter newConnections = Metrics.counter(
+			"ecp_connections", "reuse", "new");
+	private final static Counter reusedConnections = Metrics.counter(
+			"ecp_connections", "reuse", "reused");
+	private final static Counter unknownConnections = Metrics.counter(
+			"ecp_connections", "reuse", "unknown");
+	private final static Counter newTlsConnections = Metrics
+			.counter("ecp_tls_connections");
+
+	/**
+	 * Record the connection an exchange is sent over. Called while the
+	 * exchange is associated with its connection, when the request is
+	 * committed.
+	 * 
+	 * @param exchange
+	 * @return True if the exchange is the first one on its connection.
+	 */
+	public static boolean record(HttpExchange exchange) {
+
+		AbstractHttpConnection connection = getConnection(exchange);
+
+		if (connection == null) {
+			unknownConnections.increment();
+			return false;
+		}
+
+		long exchanges;
+		synchronized (exchangesPerConnection) {
+			Long previous = exchangesPerConnection.get(connection);
+			exchanges = previous == null ? 1 : previous + 1;
+			exchangesPerConnection.put(connection, exchanges);
+		}
+
+		if (exchanges == 1) {
+			newConnections.increment();
+
+			if (exchange.getScheme() != null
+					&& HttpSchemes.HTTPS_BUFFER.equalsIgnoreCase(exchange
+							.getScheme()))
+				newTlsConnections.increment();
+			return true;
+		}
+
+		reusedConnections.increment();
+		return false;
+	}
+
+	/**
+	 * Returns the connection an exchange is associated with, or null.
+	 * 
+	 * @param exchange
+	 * @return
+	 */
+	private static AbstractHttpConnection getConnection(HttpExchange exchange) {
+
+		if (connectionField == null)
+			return null;
+
+		try {
+			return (AbstractHttpConnection) connectionField.get(exchange);
+		} catch (IllegalAccessException e) {
+			logger.debug("Could not read the connection of an exchange.");
+		}
+		return null;
+	}
+
+	/**
+	 * Look up the private connection field of HttpExchange.
+	 * 
+	 * @return The field, or null if it does not exist or cannot be read.
+	 */
+	private static Field findConnectionField() {
+		try {
+			Field field = HttpExchange.class.getDeclaredField("_connection");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			logger.info("Connection reuse will not be counted: " + e);
+		}
+		return null;
+	}
+
+	/* Getters */
+
+	public static long getNewConnections() {
+		return newConnections.getCount();
+	}
+
+	public static long getReusedConnections() {
+		return reusedConnections.getCount();
+	}
+
+	public static long getNewTlsConnections() {
+		return newTlsConnections.getCount();
+	}
+
+	/**
+	 * Returns the share of exchanges that reused a connection, between 0 and
+	 * 1.
+	 * 
+	 * @return
+	 */
+	public static double getReuseRatio() {
+		long reused = reusedConnections.getCount();
+		long total = reused + newConnections.getCount();
+
+		if (total == 0)
+			return 0;
+		return reused / (double) total;
+	}
+
+	/**
+	 * Returns a one line summary of the counts.
+	 * 
+	 * @return
+	 */
+	public static String summary() {
+		return String.format("%d exchanges, %d new connections "
+				+ "(%d TLS handshakes), %d reused, reuse ratio %.2f",
+				getNewConnections() + getReusedConnections(),
+				getNewConnections(), getNewTlsConnections(),
+				getReusedConnections(), getReuseRatio());
+	}
+}
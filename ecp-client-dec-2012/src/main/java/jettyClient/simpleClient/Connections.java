@@ -20,25 +20,26 @@ import java.io.Console;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import jettyClient.EnvelopeHandling.EnvelopeCreator;
+import jettyClient.EnvelopeHandling.RelayEnvelope;
+import jettyClient.paosClient.CookieJar;
 import jettyClient.paosClient.ExchangeContent;
 import jettyClient.paosClient.PaosClient;
-import jettyClient.parser.ExtractField;
+import jettyClient.parser.HeaderFields;
+import jettyClient.parser.MessageParser;
 import jettyClient.parser.ParseHelper;
+import jettyClient.tracing.Span;
+import jettyClient.tracing.Trace;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.security.Realm;
-import org.eclipse.jetty.client.security.RealmResolver;
-import org.eclipse.jetty.client.security.SimpleRealmResolver;
 
-import org.opensaml.core.xml.XMLObject;
 import org.opensaml.saml.saml2.core.IDPEntry;
-import org.opensaml.saml.saml2.core.IDPList;
-import org.opensaml.saml.saml2.ecp.Request;
 import org.opensaml.soap.soap11.Body;
 import org.opensaml.soap.soap11.Envelope;
-import org.opensaml.soap.soap11.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,10 +59,42 @@ public class Connections {
 
 	private boolean verbose = false;
 
+	// Completed logins, shared between Connections. Can be null.
+	private final SessionCache sessionCache;
+
+	// Cookies set during this login session.
+	private CookieJar cookieJar = null;
+
+	// Root span of the login, Span.none() when it is not traced.
+	private Span span = Span.none();
+
+	// IdP login credentials. Read from the console when not given.
+	private String principal = null;
+	private String credentials = null;
+
+	/**
+	 * Constructor. Every login runs the full SP -> IdP -> SP flow.
+	 */
+	public Connections() {
+		this(null);
+	}
+
+	/**
+	 * Constructor. Logins with given credentials are stored in the session
+	 * cache, and a cached SP session is reused while it is valid.
+	 * 
+	 * @param sessionCache
+	 */
+	public Connections(SessionCache sessionCache) {
+		this.sessionCache = sessionCache;
+	}
+
 	/**
 	 * Access some resource at a SP. Returns an ExchangeContent object that
 	 * contains the response that was sent from the IdP.
 	 * 
+	 * The IdP login credentials are read from the console.
+	 * 
 	 * @param spHost
 	 * @param spPort
 	 * @param spUri
@@ -70,79 +103,441 @@ public class Connections {
 
 	public Body accessResource(ClientOptions options, IDPEntry idpEntry,
 			HttpClient httpClient) {
+		return accessResource(options, idpEntry, httpClient, null, null);
+	}
+
+	/**
+	 * Access some resource at a SP, logging in at the IdP with the given
+	 * credentials. Returns the Body of the response that was sent from the
+	 * IdP.
+	 * 
+	 * If principal is null, the credentials are read from the console.
+	 * 
+	 * If there is a valid cached session for the SP, IdP, principal and
+	 * password, the resource is requested with the cached session cookies,
+	 * and a copy of the cached IdP response is returned if the SP accepts
+	 * them.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param httpClient
+	 * @param principal
+	 *            username
+	 * @param credentials
+	 *            password
+	 * @return
+	 */
+	public Body accessResource(ClientOptions options, IDPEntry idpEntry,
+			HttpClient httpClient, String principal, String credentials) {
+
+		try {
+			return accessResourceAsync(options, idpEntry, httpClient,
+					principal, credentials).get();
+		} catch (InterruptedException e) {
+			logger.error("Login was interrupted.");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.info("Login failed. " + e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Access some resource at a SP without blocking the caller. The SP -> IdP
+	 * -> SP flow is chained on the futures of the PaosClient, so no thread
+	 * waits while an exchange is in flight.
+	 * 
+	 * The returned future is completed with the Body of the response that was
+	 * sent from the IdP, or with null if the login did not get that far.
+	 * 
+	 * If principal is null, the credentials are read from the console when
+	 * the IdP is contacted.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param httpClient
+	 * @param principal
+	 *            username
+	 * @param credentials
+	 *            password
+	 * @return
+	 */
+	public CompletableFuture<Body> accessResourceAsync(ClientOptions options,
+			IDPEntry idpEntry, HttpClient httpClient, String principal,
+			String credentials) {
+
+		span = startTrace(options, idpEntry, "ecp login");
+		final Span root = span;
+
+		CompletableFuture<Body> login = null;
+
+		try {
+			login = login(options, idpEntry, httpClient, principal,
+					credentials);
+		} catch (RuntimeException e) {
+			login = new CompletableFuture<Body>();
+			login.completeExceptionally(e);
+		}
+		return login.whenComplete((body, error) -> root.end());
+	}
+
+	/**
+	 * Run the SP -> IdP -> SP flow of accessResourceAsync.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param httpClient
+	 * @param principal
+	 * @param credentials
+	 * @return
+	 */
+	private CompletableFuture<Body> login(final ClientOptions options,
+			final IDPEntry idpEntry, HttpClient httpClient, String principal,
+			String credentials) {
+
+		this.principal = principal;
+		this.credentials = credentials;
 
-		PaosClient paosClient = null;
+		// Look for an earlier login with the same credentials.
+		final CachedSession cachedSession = sessionCache != null
+				&& principal != null && credentials != null ? sessionCache
+				.get(options.getSpURL(), idpEntry.getProviderID(), principal,
+						credentials) : null;
 
-		ExchangeContent spContent = null;
-		URL assertionConsumerEndpoint = null;
+		// Every new login session starts with an empty cookie jar, or with a
+		// copy of the cached session's cookies.
+		cookieJar = cachedSession != null ? cachedSession.getCookieJar()
+				: new CookieJar();
 
 		// Set parameters from options in args.
 		setParameters(options);
 
 		// Create a Paos HttpClient.
-		paosClient = new PaosClient(httpClient);
+		final PaosClient paosClient = new PaosClient(httpClient);
+		paosClient.setAllowHttp(options.isAllowHttp());
 
 		// Get the AuthnRequest from the SP
-		spContent = getRequestToSP(options.getSpURL(), paosClient);
+		return getRequestToSP(options.getSpURL(), paosClient).thenCompose(
+				spContent -> {
+					if (cachedSession != null) {
+						// The SP sent the resource instead of an AuthnRequest,
+						// so the cached session is still valid.
+						if (spContent.getResponseStatus() == 200
+								&& spContent.getResponseParts() == null) {
+							logger.debug("Reused the cached session for "
+									+ this.principal);
+							span.setAttribute("ecp.cached_session", true);
+							printResource(spContent);
+							return CompletableFuture
+									.completedFuture(cachedSession
+											.getResponse());
+						}
+
+						logger.debug("The SP did not accept the cached session for "
+								+ this.principal);
+						sessionCache.remove(options.getSpURL(),
+								idpEntry.getProviderID(), this.principal);
+
+						// Log in again without the rejected cookies. Only
+						// the cookies the SP set with this AuthnRequest are
+						// kept.
+						cookieJar = new CookieJar();
+						if (spContent.getHeaders() != null)
+							cookieJar.storeCookies(options.getSpURL(),
+									spContent.getHeaders());
+					}
+
+					if (spContent.getResponseParts() == null) {
+						logger.debug("The SP did not respond to the GET request.");
+						return CompletableFuture.<Body> completedFuture(null); // :(
+					}
+
+					final String spAssertionConsumer = spContent
+							.getHeaderFields().getAssertionConsumerURL();
+
+					// Get the SOAP Envelope Body from the IdP that contains
+					// the response or a soap fault, and send it to the SP.
+					return getResponseBody(spContent, idpEntry, paosClient)
+							.thenCompose(
+									body -> body == null ? CompletableFuture
+											.<Body> completedFuture(null)
+											: sendResponseToSP(options,
+													idpEntry, paosClient,
+													spAssertionConsumer, body));
+				});
+	}
 
-		if (spContent.getResponseParts() != null) {
-			String spAssertionConsumer = ExtractField
-					.extractAssertionConsumerURL(spContent.getResponseParts()
-							.getHeader());
+	/**
+	 * Send the Body the IdP returned to the assertion consumer of the SP.
+	 * The returned future is completed with the Body.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param paosClient
+	 * @param spAssertionConsumer
+	 * @param body
+	 * @return
+	 */
+	private CompletableFuture<Body> sendResponseToSP(
+			final ClientOptions options, final IDPEntry idpEntry,
+			PaosClient paosClient, String spAssertionConsumer, final Body body) {
 
-			// Check if we received an AuthnRequest as a response.
-			// validate(spContent.getEnvelope.getbody.getUnknownXMLObjects);
+		if (body != null) {
+			if (verbose) {
+				System.out.println("Received from idp: \n"
+						+ ParseHelper.anythingToXMLString(body));
+			}
+		}
 
-			// Get the SOAP Envelope Body from the IdP that contains the
-			// response or a soap fault.
-			Body body = getResponseBody(spContent, idpEntry, paosClient);
+		// Build the envelope you want to send.
+		Span build = span.child("build");
+		final Envelope assertionEnvelope = EnvelopeCreator
+				.createSpResponseEnvelope(body);
+		build.end();
 
-			if (body != null) {
-				if (verbose) {
-					System.out.println("Received from idp: \n"
-							+ ParseHelper.anythingToXMLString(body));
-				}
+		if (assertionEnvelope == null) {
+			logger.info("Could not build the envelope for the SP.");
+			return CompletableFuture.<Body> completedFuture(null);
+		}
 
-				logger.debug("Received from idp: \n"
-						+ ParseHelper.anythingToXMLString(body));
-			}
+		// Build an empty exchangeContent with the envelope
+		ExchangeContent assertionContent = new ExchangeContent(
+				assertionEnvelope, null);
 
-			// Build the envelope you want to send.
-			Envelope assertionEnvelope = EnvelopeCreator
-					.createSpResponseEnvelope(body);
+		// Turn the assertionConsumer string into an URL
+		URL assertionConsumerEndpoint = getURL(spAssertionConsumer);
 
-			// Build an empty exchangeContent with the envelope
-			ExchangeContent assertionContent = new ExchangeContent(
-					assertionEnvelope, null);
+		if (assertionConsumerEndpoint == null) {
+			logger.debug("No valid assertion consumer URL to send the response to.");
+			return CompletableFuture.<Body> completedFuture(null);
+		}
 
-			// Turn the assertionConsumer string into an URL
-			assertionConsumerEndpoint = getURL(spAssertionConsumer);
+		// Add the sp session cookies back
+		assertionContent.setCookieJar(cookieJar);
+		assertionContent.setSpan(span);
+		assertionContent.setHop(ExchangeContent.hopConsumer);
+
+		// Send the exchangeContent.
+		return orUnchanged(
+				paosClient.sendAsync(assertionConsumerEndpoint,
+						assertionContent), assertionContent).thenApply(
+				stored -> {
+					// The envelope is captured when it is sent, only print it
+					// here.
+					if (verbose) {
+						System.out.println("Sending envelope to SP endpoint: "
+								+ options.getSpEndpoint());
+						System.out.println(ParseHelper
+								.anythingToXMLString(assertionEnvelope));
+					}
+
+					printResource(stored);
+
+					// Remember the session if the IdP issued a Response and
+					// the assertion consumer accepted it.
+					if (sessionCache != null && principal != null
+							&& credentials != null && body != null
+							&& !PaosClient.containsSoapFault(body)
+							&& isSuccess(stored.getResponseStatus()))
+						sessionCache.put(options.getSpURL(),
+								idpEntry.getProviderID(), principal,
+								credentials, cookieJar, body);
+
+					// This return is unnecessary in a normal SP exchange.
+					return body;
+				});
+	}
 
-			// Add the sp session cookie back
-			assertionContent.setCookieField(spContent.getCookieField());
+	/**
+	 * Access some resource at a SP in relay mode. The AuthnRequest and the IdP
+	 * response are forwarded as bytes: the SOAP Body is copied from one
+	 * envelope to the next without being parsed, validated or rebuilt. Only
+	 * the SOAP headers are read, for routing.
+	 * 
+	 * Returns the envelope the IdP sent, or null if the login did not reach
+	 * the IdP. Relay logins are not stored in the session cache.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param httpClient
+	 * @param principal
+	 *            username, or null to read the credentials from the console
+	 * @param credentials
+	 *            password
+	 * @return
+	 */
+	public byte[] relayResource(ClientOptions options, IDPEntry idpEntry,
+			HttpClient httpClient, String principal, String credentials) {
 
-			// Send the exchangeContent.
-			assertionContent = paosClient.send(assertionConsumerEndpoint,
-					assertionContent);
+		span = startTrace(options, idpEntry, "ecp relay login");
+		try {
+			return relay(options, idpEntry, httpClient, principal,
+					credentials);
+		} finally {
+			span.end();
+		}
+	}
 
-			String envelopeString = ParseHelper
-					.anythingToXMLString(assertionEnvelope);
+	/**
+	 * Run the SP -> IdP -> SP flow of relayResource.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param httpClient
+	 * @param principal
+	 * @param credentials
+	 * @return
+	 */
+	private byte[] relay(ClientOptions options, IDPEntry idpEntry,
+			HttpClient httpClient, String principal, String credentials) {
 
-			System.out.println("Sending envelope to SP endpoint: "
-					+ options.getSpEndpoint());
-			System.out.println(envelopeString);
-			logger.info("Sent to SP: \n" + envelopeString);
+		this.principal = principal;
+		this.credentials = credentials;
 
-			if (assertionContent.getOtherResponse() != null) {
-				System.out.println("Response received from SP: \n");
-				System.out.println(new String(assertionContent.getOtherResponse()));
-			}
+		cookieJar = new CookieJar();
+		setParameters(options);
+
+		PaosClient paosClient = new PaosClient(httpClient, true);
+		paosClient.setAllowHttp(options.isAllowHttp());
+
+		// Get the AuthnRequest from the SP
+		ExchangeContent spContent = getRequestToSP(options.getSpURL(),
+				paosClient).join();
 
-			// This return is unnecessary in a normal SP exchange.
-			return body;
+		if (spContent.getResponseMessage() == null) {
+			logger.debug("The SP did not respond with an envelope.");
+			printResource(spContent);
+			return null;
+		}
+
+		HeaderFields spFields = spContent.getHeaderFields();
+
+		URL idpURL = determineIdP(spFields.getIdpEntries(), idpEntry);
+
+		if (idpURL == null) {
+			logger.info("The SP did not indicate support for the chosen IdP.");
+			idpURL = getURL(idpEntry.getLoc());
+		}
+
+		if (idpURL == null) {
+			logger.debug("No valid IdP URL to forward the AuthnRequest to.");
+			return null;
+		}
+
+		// Forward the AuthnRequest to the IdP
+		ExchangeContent idpContent = new ExchangeContent(null, null);
+		Span build = span.child("build");
+		idpContent.setRequestMessage(RelayEnvelope.createIdpEnvelope(
+				spContent.getResponseMessage(), spFields));
+		build.end();
+
+		if (idpContent.getRequestMessage() == null) {
+			logger.debug("Could not relay the AuthnRequest from the SP.");
+			return null;
+		}
+
+		idpContent = sendToIdP(paosClient, idpContent, idpURL);
+
+		byte[] idpMessage = idpContent.getResponseMessage();
+
+		if (idpMessage == null) {
+			logger.debug("The IdP did not respond with an envelope.");
+			return null;
+		}
+
+		// Build the envelope to send to the assertion consumer.
+		byte[] spMessage = null;
+		build = span.child("build");
+
+		if (consumerUrlsMatch(idpContent, spFields.getAssertionConsumerURL())) {
+			spMessage = RelayEnvelope.createSpResponseEnvelope(idpMessage,
+					idpContent.getHeaderFields());
+		} else {
+			logger.debug("AssertionConsumerURLs from AuthnRequest and Response did not match.");
+			logger.debug("Returning a SOAP fault message to the endpoint.");
+			spMessage = MessageParser.envelopeToStream(
+					EnvelopeCreator.createSpResponseEnvelope(EnvelopeCreator
+							.createSoapFaultBody("AssertionConsumerURLs did not match.")))
+					.toByteArray();
+		}
+		build.end();
+
+		if (spMessage == null) {
+			logger.debug("Could not relay the response from the IdP.");
+			return null;
+		}
+
+		URL assertionConsumerEndpoint = getURL(spFields
+				.getAssertionConsumerURL());
+
+		if (assertionConsumerEndpoint == null) {
+			logger.debug("No valid assertion consumer URL to send the response to.");
+			return null;
+		}
+
+		ExchangeContent assertionContent = new ExchangeContent(null, null);
+		assertionContent.setRequestMessage(spMessage);
+		assertionContent.setCookieJar(cookieJar);
+		assertionContent.setSpan(span);
+		assertionContent.setHop(ExchangeContent.hopConsumer);
+
+		assertionContent = paosClient.send(assertionConsumerEndpoint,
+				assertionContent);
+
+		printResource(assertionContent);
+
+		return idpMessage;
+	}
+
+	/**
+	 * Returns true for a 2xx HTTP status.
+	 * 
+	 * @param status
+	 * @return
+	 */
+	private static boolean isSuccess(int status) {
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * Returns the cookie jar of the latest login session, which holds the SP
+	 * session cookies after a successful login.
+	 * 
+	 * @return
+	 */
+	public CookieJar getCookieJar() {
+		return cookieJar;
+	}
+
+	/**
+	 * Start the trace of a login if tracing is on.
+	 * 
+	 * @param options
+	 * @param idpEntry
+	 * @param name
+	 * @return The root span, or Span.none().
+	 */
+	private Span startTrace(ClientOptions options, IDPEntry idpEntry,
+			String name) {
+
+		Span root = Trace.start(name, options.isTrace());
+		root.setAttribute("ecp.sp", String.valueOf(options.getSpURL()));
+		if (idpEntry != null)
+			root.setAttribute("ecp.idp", idpEntry.getProviderID());
+		return root;
+	}
+
+	/**
+	 * Print the resource (or any other non-envelope response) that an SP
+	 * sent.
+	 * 
+	 * @param content
+	 */
+	private void printResource(ExchangeContent content) {
+		if (content.getOtherResponse() != null) {
+			System.out.println("Response received from SP: \n");
+			System.out.println(new String(content.getOtherResponse()));
 		}
-		logger.debug("The SP did not respond to the GET request.");
-		return null; // :(
 	}
 
 	// Set the -verbose parameter
@@ -158,22 +553,19 @@ public class Connections {
 	 * 
 	 * @return
 	 */
-	private Body getResponseBody(ExchangeContent spContent, IDPEntry idpEntry,
-			PaosClient paosClient) {
+	private CompletableFuture<Body> getResponseBody(ExchangeContent spContent,
+			IDPEntry idpEntry, PaosClient paosClient) {
 
-		String spAssertionConsumerURL = "";
-		ExchangeContent idpContent = null;
 		Envelope idpEnvelope = null;
 		URL idpURL = null;
 
 		// Extract idplist from authnrequest and check if the SP supports
 		// the one that was chosen. If not, complain.
-		idpURL = determineIdP(spContent.getResponseParts().getHeader(),
+		idpURL = determineIdP(spContent.getHeaderFields().getIdpEntries(),
 				idpEntry);
 
-		spAssertionConsumerURL = ExtractField
-				.extractAssertionConsumerURL(spContent.getResponseParts()
-						.getHeader());
+		final String spAssertionConsumerURL = spContent.getHeaderFields()
+				.getAssertionConsumerURL();
 
 		// If no matching idp was found from the list the SP sent...
 		if (idpURL == null) {
@@ -183,28 +575,37 @@ public class Connections {
 												// unknown IdP.
 		}
 
+		if (idpURL == null) {
+			logger.debug("No valid IdP URL to send the AuthnRequest to.");
+			return CompletableFuture.<Body> completedFuture(null);
+		}
+
 		// Create the envelope with the AuthnRequest that will be sent to the
 		// IdP
+		Span build = span.child("build");
 		idpEnvelope = EnvelopeCreator.createIdpEnvelope(spContent
 				.getResponseParts());
+		build.end();
+
+		if (idpEnvelope == null) {
+			logger.info("Could not build the envelope for the IdP.");
+			return CompletableFuture.<Body> completedFuture(null);
+		}
 
 		// Get the Assertion from the IdP (send AuthnRequest to IdP)
-		idpContent = getAssertion(paosClient, idpEnvelope, idpURL);
-
-		// If the IdP sent back anything at all as a response:
-		if (idpContent != null) {
-			// Check assertionConsumerURL. If it does not match, send a SOAP
-			// fault to the SP/endpoint
-			if (consumerUrlsMatch(idpContent, spAssertionConsumerURL)) {
-				return idpContent.getResponseParts().getBody();
-			} else {
-				logger.debug("AssertionConsumerURLs from AuthnRequest and Response did not match.");
-				logger.debug("Returning a SOAP fault message to the endpoint.");
-				return EnvelopeCreator
-						.createSoapFaultBody("AssertionConsumerURLs did not match.");
-			}
-		} // else the paosclient has complained about this.
-		return null;
+		return getAssertion(paosClient, idpEnvelope, idpURL).thenApply(
+				idpContent -> {
+					// Check assertionConsumerURL. If it does not match, send
+					// a SOAP fault to the SP/endpoint
+					if (consumerUrlsMatch(idpContent, spAssertionConsumerURL)) {
+						return idpContent.getResponseParts().getBody();
+					} else {
+						logger.debug("AssertionConsumerURLs from AuthnRequest and Response did not match.");
+						logger.debug("Returning a SOAP fault message to the endpoint.");
+						return EnvelopeCreator
+								.createSoapFaultBody("AssertionConsumerURLs did not match.");
+					}
+				});
 	}
 
 	/**
@@ -214,21 +615,45 @@ public class Connections {
 	 * @param paosClient
 	 * @return
 	 */
-	private ExchangeContent getRequestToSP(URL spURL, PaosClient paosClient) {
+	private CompletableFuture<ExchangeContent> getRequestToSP(URL spURL,
+			PaosClient paosClient) {
 
 		// Create a new, empty SP ExchangeContent.
 		ExchangeContent spContent = new ExchangeContent(null, null);
+		spContent.setCookieJar(cookieJar);
+		spContent.setSpan(span);
 
 		// Send a PAOS GET request to the given SP endpoint.
-		spContent = paosClient.sendHttpGETRequest(spURL, spContent);
-
-		if (verbose) {
-			System.out.println("AuthnRequest from SP: \n"
-					+ new String(ParseHelper.anythingToXMLString(spContent
-							.getResponseParts().getBody())));
-		}
+		return orUnchanged(paosClient.sendHttpGETRequestAsync(spURL, spContent),
+				spContent).thenApply(stored -> {
+			if (verbose && stored.getResponseParts() != null) {
+				System.out.println("AuthnRequest from SP: \n"
+						+ new String(ParseHelper.anythingToXMLString(stored
+								.getResponseParts().getBody())));
+			}
+			return stored;
+		});
+	}
 
-		return spContent;
+	/**
+	 * Returns a future that is completed with the stored content, or with the
+	 * content unchanged if no response was received, like PaosClient.send
+	 * does for a blocking exchange.
+	 * 
+	 * @param future
+	 * @param content
+	 * @return
+	 */
+	private static CompletableFuture<ExchangeContent> orUnchanged(
+			CompletableFuture<ExchangeContent> future,
+			final ExchangeContent content) {
+
+		return future.handle((stored, error) -> {
+			if (error == null)
+				return stored;
+			logger.info("Could not send message. " + error);
+			return content;
+		});
 	}
 
 	/**
@@ -241,82 +666,109 @@ public class Connections {
 	 * @param idpURL
 	 * @return
 	 */
-	public ExchangeContent getAssertion(PaosClient paosClient,
-			Envelope idpEnvelope, URL idpURL) {
+	public CompletableFuture<ExchangeContent> getAssertion(
+			PaosClient paosClient, Envelope idpEnvelope, URL idpURL) {
 
 		ExchangeContent idpContent = null;
 
-		String principal = "";
-		String credentials = "";
-
 		if (verbose) {
 			System.out.println("Forwarding Authnrequest to "
 					+ idpURL.toString());
 			System.out.println(ParseHelper.anythingToXMLString(idpEnvelope));
 		}
 
-		Console console = null;
+		idpContent = new ExchangeContent(idpEnvelope, null);
 
-		console = System.console();
+		// The content is returned unchanged if something went wrong @
+		// PaosClient.
+		return orUnchanged(
+				paosClient.sendAsync(idpURL, prepareForIdP(idpContent, idpURL)),
+				idpContent);
+	}
 
-		// ------- LOGIN -----------
-		// Ask the user for login information. Does not work in
-		// an IDE.
-		// https://bugs.eclipse.org/bugs/show_bug.cgi?id=122429
-		if (console != null) {
-			principal = console.readLine("Please enter username: ");
-			credentials = new String(
-					console.readPassword("Please enter password: "));
-			System.out.println("");
-		}
-		// -------------------
+	/**
+	 * Send the request in the ExchangeContent to the IdP with the login
+	 * credentials and the cookies of this login session.
+	 * 
+	 * @param paosClient
+	 * @param idpContent
+	 * @param idpURL
+	 * @return
+	 */
+	private ExchangeContent sendToIdP(PaosClient paosClient,
+			ExchangeContent idpContent, URL idpURL) {
+
+		// Send everything to the IdP.
+		return paosClient.send(idpURL, prepareForIdP(idpContent, idpURL));
+	}
+
+	/**
+	 * Add the login credentials and the cookies of this login session to a
+	 * request for the IdP.
+	 * 
+	 * @param idpContent
+	 * @param idpURL
+	 * @return The same content object.
+	 */
+	private ExchangeContent prepareForIdP(ExchangeContent idpContent,
+			URL idpURL) {
+
+		// Ask for the login credentials unless they were given.
+		if (principal == null)
+			readCredentials();
 
 		// Set the login credentials at IdP exchangecontent.
-		idpContent = new ExchangeContent(idpEnvelope, createRealmResolver(
-				principal, credentials));
+		idpContent.setRealm(createRealm(principal, credentials));
+		idpContent.setCookieJar(cookieJar);
+		idpContent.setSpan(span);
+		idpContent.setHop(ExchangeContent.hopIdP);
 
 		logger.debug("\nWill forward the request to: " + idpURL.toString()
 				+ "\n");
 
-		// Send everything to the IdP.
-		idpContent = paosClient.send(idpURL, idpContent);
-
-		// If this does not exist, something went wrong @
-		// PaosClient.
 		return idpContent;
 	}
 
 	/**
-	 * Read the list of supported IDPs that the SP sent and determine if the
-	 * chosen IdP is supported. Request = opensaml ECP request header.
+	 * Ask the user for login information. Does not work in an IDE.
 	 * 
-	 * @param header
-	 * @return
+	 * https://bugs.eclipse.org/bugs/show_bug.cgi?id=122429
 	 */
-	public URL determineIdP(Header header, IDPEntry idpEntry) {
+	private void readCredentials() {
 
-		IDPList idpList = null;
-		List<XMLObject> list = header.getUnknownXMLObjects();
+		Console console = System.console();
 
-		for (XMLObject xmlObject : list) {
-			if (xmlObject.getElementQName()
-					.equals(Request.DEFAULT_ELEMENT_NAME)) {
-				idpList = ((Request) xmlObject).getIDPList();
-			}
+		principal = "";
+		credentials = "";
+
+		if (console != null) {
+			principal = console.readLine("Please enter username: ");
+			credentials = new String(
+					console.readPassword("Please enter password: "));
+			System.out.println("");
 		}
+	}
+
+	/**
+	 * Determine if the chosen IdP is in the list of supported IdPs that the SP
+	 * sent, as scanned from the SP header by the HeaderScanner.
+	 * 
+	 * @param spIdpEntries
+	 * @param idpEntry
+	 * @return The URL of the IdP, or null if the SP does not list it.
+	 */
+	public URL determineIdP(List<IDPEntry> spIdpEntries, IDPEntry idpEntry) {
 
 		// If the list from the SP contains the same entry that
 		// was chosen by the client...
-		if (idpList != null) {
-			for (IDPEntry spIdpEntry : idpList.getIDPEntrys()) {
-				if (spIdpEntry.getName() != null && spIdpEntry.getLoc() != null
-						&& idpEntry.getProviderID() != null)
-					if (spIdpEntry.getName().equals(idpEntry.getName()))
-						if (spIdpEntry.getLoc().equals(idpEntry.getLoc()))
-							if (spIdpEntry.getProviderID().equals(
-									idpEntry.getProviderID()))
-								return getURL(spIdpEntry.getLoc());
-			}
+		for (IDPEntry spIdpEntry : spIdpEntries) {
+			if (spIdpEntry.getName() != null && spIdpEntry.getLoc() != null
+					&& idpEntry.getProviderID() != null)
+				if (spIdpEntry.getName().equals(idpEntry.getName()))
+					if (spIdpEntry.getLoc().equals(idpEntry.getLoc()))
+						if (spIdpEntry.getProviderID().equals(
+								idpEntry.getProviderID()))
+							return getURL(spIdpEntry.getLoc());
 		}
 		return null;
 	}
@@ -332,13 +784,11 @@ public class Connections {
 	// But not if the latest specs are followed.
 	private boolean consumerUrlsMatch(ExchangeContent idpContent,
 			String spAssertionConsumerURL) {
-		// if header != null ..
-
-		if (idpContent.getResponseParts().getHeader() != null) {
-			// Extract the assertionConsumerURL from an IdP response header.
-			String idpAssertionConsumerURL = ExtractField
-					.extractAssertionConsumerURL(idpContent.getResponseParts()
-							.getHeader());
+		// No header fields if the IdP did not send an envelope.
+		if (idpContent.getHeaderFields() != null) {
+			// The assertionConsumerURL from the IdP response header.
+			String idpAssertionConsumerURL = idpContent.getHeaderFields()
+					.getAssertionConsumerURL();
 
 			if (idpAssertionConsumerURL.equals(spAssertionConsumerURL)
 					|| idpAssertionConsumerURL.endsWith(spAssertionConsumerURL))
@@ -348,20 +798,20 @@ public class Connections {
 	}
 
 	/**
-	 * Returns a new RealmResolver with the given credentials set. These will be
-	 * added as an HTTP header field in the request that is sent to the IdP. The
-	 * returned RealmResolver will be set on the httpClient.
+	 * Returns a new Realm with the given credentials set. These will be added
+	 * as an HTTP Authorization header field in the request that is sent to the
+	 * IdP. The Realm belongs to one exchange, so concurrent logins over the
+	 * same httpClient never see each other's credentials.
 	 * 
 	 * @param principal
 	 *            username
 	 * @param credentials
 	 *            password
-	 * @return a RealmResolver
+	 * @return a Realm
 	 */
-	public RealmResolver createRealmResolver(final String principal,
-			final String credentials) {
+	public Realm createRealm(final String principal, final String credentials) {
 
-		return new SimpleRealmResolver(new Realm() {
+		return new Realm() {
 
 			String id = "IdP Password Authentication"; // Info from IdP
 
@@ -376,28 +826,22 @@ public class Connections {
 			public String getCredentials() {
 				return credentials;
 			}
-		});
+		};
 	}
 
 	/**
-	 * Attempts to create an URL from the given parameter.
+	 * Attempts to create an URL from the given parameter. An URL without a
+	 * port is sent to the default port of its scheme (see
+	 * PaosClient.setEndpoint).
 	 * 
 	 * @param string
-	 * @return
+	 * @return The URL, or null if the string is not a valid URL.
 	 */
-
-	// This could be made to default to a) the same port the SP used b)
-	// something more standard as in 443 or 8443 c) something else
-
 	private URL getURL(String string) {
 		URL url = null;
 
 		try {
 			url = new URL(string);
-			if (url.getPort() == -1) {
-				logger.debug("Missing port number in URL.");
-				throw new MalformedURLException();
-			}
 		} catch (MalformedURLException e) {
 			url = null;
 			logger.debug("Malformed endpoint URL: " + string);
@@ -0,0 +1,74 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.net.URL;
+
+import org.opensaml.saml.saml2.core.IDPEntry;
+
+/**
+ * A LoginJob is one ECP login that the BatchLogin engine should run: the SP
+ * resource to access, the IdP to log in at and the credentials to log in
+ * with.
+ * 
+ * @author carolina
+ * 
+ */
+public class LoginJob {
+
+	private final URL spURL;
+	private final IDPEntry idpEntry;
+	private final String principal;
+	private final String credentials;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param spURL
+	 *            The SP resource to access.
+	 * @param idpEntry
+	 *            The IdP to log in at.
+	 * @param principal
+	 *            username
+	 * @param credentials
+	 *            password
+	 */
+	public LoginJob(URL spURL, IDPEntry idpEntry, String principal,
+			String credentials) {
+		this.spURL = spURL;
+		this.idpEntry = idpEntry;
+		this.principal = principal;
+		this.credentials = credentials;
+	}
+
+	/* Getters */
+
+	public URL getSpURL() {
+		return spURL;
+	}
+
+	public IDPEntry getIdpEntry() {
+		return idpEntry;
+	}
+
+	public String getPrincipal() {
+		return principal;
+	}
+
+	public String getCredentials() {
+		return credentials;
+	}
+}
@@ -0,0 +1,80 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import org.opensaml.soap.soap11.Body;
+
+/**
+ * The outcome of one LoginJob: the Body of the IdP response (null if the
+ * login failed), how long the login took and the error that stopped it, if
+ * any.
+ * 
+ * @author carolina
+ * 
+ */
+public class LoginResult {
+
+	private final LoginJob job;
+	private final Body body;
+	private final boolean success;
+	private final long durationNanos;
+	private final Throwable error;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param job
+	 *            The job that was run.
+	 * @param body
+	 *            The Body the IdP returned, or null.
+	 * @param success
+	 *            True if the IdP returned a Response that is not a SOAP fault.
+	 * @param durationNanos
+	 *            Time spent on the login.
+	 * @param error
+	 *            The error that ended the login, or null.
+	 */
+	public LoginResult(LoginJob job, Body body, boolean success,
+			long durationNanos, Throwable error) {
+		this.job = job;
+		this.body = body;
+		this.success = success;
+		this.durationNanos = durationNanos;
+		this.error = error;
+	}
+
+	/* Getters */
+
+	public LoginJob getJob() {
+		return job;
+	}
+
+	public Body getBody() {
+		return body;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+}
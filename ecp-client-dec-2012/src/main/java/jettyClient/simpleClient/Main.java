@@ -18,9 +18,12 @@ package jettyClient.simpleClient;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 import jettyClient.metadata.IdpMetadata;
+import jettyClient.objectProviderRegisterer.MinimalInitializer;
 import jettyClient.objectProviderRegisterer.ObjectProviderRegisterer;
+import jettyClient.parser.SchemaRegistry;
 
 import org.opensaml.core.config.InitializationException;
 import org.opensaml.core.config.InitializationService;
@@ -46,50 +49,91 @@ public class Main {
 		URL spURL = null, idpURL = null;
 		String idpId = "";
 
+		long startTime = System.nanoTime();
+
+		// Parse command line parameters into configuration info
+		ClientOptions options = Parameters.setOptions(args);
+
+		if (options == null)
+			return;
+
 		// Initialize and configure OpenSAML (Builderfactory, Marshaller...)
 		try {
-			InitializationService.initialize();
+			if (options.isFastStart())
+				MinimalInitializer.initialize();
+			else
+				InitializationService.initialize();
 		} catch (InitializationException e) {
 			logger.debug("Could not initialize OpenSAML.\n" + e);
 		}
 
 		// Register PAOS request header builder + marshaller.
 		ObjectProviderRegisterer.register();
+		logPhase(options, "OpenSAML initialization", startTime);
 
-		// Load metadata (load it from a folder that contains metadata xml)
-		IdpMetadata metadata = new IdpMetadata();
+		// Compile the XML schemas once, for every exchange to share. In fast
+		// start mode a schema is compiled when it is first used.
+		if (!options.isFastStart()) {
+			SchemaRegistry.initialize();
+			logPhase(options, "Schema compilation", startTime);
+		}
 
-		// Parse command line parameters into configuration info
-		ClientOptions options = Parameters.setOptions(args);
+		// Load metadata (look the IdP up in the index of the metadata folder;
+		// only changed files are parsed).
+		IdpMetadata metadata = new IdpMetadata();
 
-		if (options != null) {
+		// Get the IdP id
+		idpId = options.getIdpID();
 
-			// Get the IdP id
-			idpId = options.getIdpID();
+		// Check if IdP id is in list.
+		IDPEntry idpEntry = metadata.getEntry(idpId);
+		logPhase(options, "Metadata loading", startTime);
 
-			// Check if IdP id is in list.
-			IDPEntry idpEntry = metadata.getIdpList().get(idpId);
+		if (idpEntry != null) {
+			// Get endpoint URLs.
 
-			if (idpEntry != null) {
-				// Get endpoint URLs.
+			idpURL = Parameters.getURL(idpEntry.getLoc()); // :(
+			spURL = options.getSpURL();
 
-				idpURL = Parameters.getURL(idpEntry.getLoc()); // :(
-				spURL = options.getSpURL();
+			// If both endpoints are ok, which they should be, send a
+			// request.
+			if (spURL != null && idpURL != null) {
+				clientLogin = new Client(); // login client version
+				logPhase(options, "Time to first request", startTime);
 
-				// If both endpoints are ok, which they should be, send a
-				// request.
-				if (spURL != null && idpURL != null) {
-					clientLogin = new Client(); // login client version
-					clientLogin.accessResource(options, idpEntry);
-				}
+				clientLogin.accessResource(options, idpEntry);
+				clientLogin.stop();
+				logPhase(options, "Login", startTime);
 
-			} else {
-				System.out.println("No IdP found matching id " + idpId + ".");
-				printIdPList(metadata.getIdpList());
+				if (options.isVerbose())
+					System.out.println(ConnectionStats.summary());
 			}
+
+		} else {
+			System.out.println("No IdP found matching id " + idpId + ".");
+			printIdPList(metadata.getIdpList());
 		}
 	}
 
+	/**
+	 * Log the time from startup to the end of a startup phase. Printed too in
+	 * verbose mode.
+	 * 
+	 * @param options
+	 * @param phase
+	 * @param startTime
+	 *            System.nanoTime() at startup.
+	 */
+	private static void logPhase(ClientOptions options, String phase,
+			long startTime) {
+		String message = String.format("%s done after %d ms", phase,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+		logger.info(message);
+		if (options.isVerbose())
+			System.out.println(message);
+	}
+
 	/**
 	 * Prints some help and a list of registered IdPs.
 	 */
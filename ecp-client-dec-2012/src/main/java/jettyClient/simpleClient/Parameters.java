@@ -42,9 +42,14 @@ public class Parameters {
 
 	// Strings describing the parameters
 	private static String verbose = "verbose";
+	private static String relay = "relay";
+	private static String fastStart = "fast";
+	private static String trace = "trace";
 	private static String help = "help";
 	private static String idpID = "idp";
 	private static String spEndpoint = "endpoint";
+	private static String maxConnections = "connections";
+	private static String idleTimeout = "idletimeout";
 
 	// Defines the command for starting the client.
 	private static String usage = "java -jar client.jar <SP endpoint> [options]";
@@ -121,6 +126,9 @@ public class Parameters {
 		// Create the configuration for the client.
 		ClientOptions options = new ClientOptions();
 
+		options.setFastStart(line.hasOption(fastStart));
+		options.setTrace(line.hasOption(trace));
+
 		// Get the arguments not matching options.
 		String leftoverArgs[] = line.getArgs();
 
@@ -168,6 +176,12 @@ public class Parameters {
 			logger.debug("Verbose mode activated.");
 		}
 
+		// Relay
+		if (line.hasOption(relay)) {
+			options.setRelay(true);
+			logger.debug("Relay mode activated.");
+		}
+
 		// SP Endpoint
 		if (line.hasOption(spEndpoint)) {
 			String endpointValue = line.getOptionValue(spEndpoint);
@@ -181,9 +195,44 @@ public class Parameters {
 			}
 		}
 
+		// Connection pool
+		if (line.hasOption(maxConnections)) {
+			options.setMaxConnectionsPerAddress((int) getPositiveNumber(line,
+					maxConnections));
+		}
+
+		if (line.hasOption(idleTimeout)) {
+			options.setIdleTimeout(getPositiveNumber(line, idleTimeout));
+		}
+
 		return options;
 	}
 
+	/**
+	 * Read the value of an option that must be a positive number. Exits the
+	 * application if it is not.
+	 * 
+	 * @param line
+	 * @param option
+	 * @return
+	 */
+	private static long getPositiveNumber(CommandLine line, String option) {
+
+		String value = line.getOptionValue(option);
+
+		try {
+			long number = Long.parseLong(value);
+			if (number > 0)
+				return number;
+		} catch (NumberFormatException e) {
+			logger.debug("Not a number: " + value);
+		}
+
+		System.out.println("Invalid value for -" + option + ": " + value);
+		System.exit(1);
+		return 0; // Unreachable.
+	}
+
 	/**
 	 * Defines the options the client will accept as parameters.
 	 * 
@@ -196,10 +245,23 @@ public class Parameters {
 		options.addOption(idpID, true, "The IdP ID.");
 		options.addOption("e", spEndpoint, true,
 				"The SP endpoint URL. Given as URL:PORT/URI.");
+		options.addOption(maxConnections, true,
+				"Maximum number of connections to one SP or IdP. Default "
+						+ ClientConfiguration.maxConnectionsPerAddress + ".");
+		options.addOption(idleTimeout, true,
+				"Milliseconds an idle connection is kept open for reuse. Default "
+						+ ClientConfiguration.idleTimeout + ".");
 
 		// Options that MUST NOT have an argument.
 		options.addOption("v", verbose, false,
 				"Prints the messages sent between the client, SP and IdP.");
+		options.addOption("r", relay, false,
+				"Forwards the SOAP bodies between the SP and IdP without parsing them.");
+		options.addOption("f", fastStart, false,
+				"Starts faster: loads only what the ECP flow needs, when it is needed.");
+		options.addOption("t", trace, false,
+				"Traces the phases of the login to "
+						+ ClientConfiguration.traceFile + ".");
 		options.addOption("h", help, false, "Prints a help message.");
 
 		return options;
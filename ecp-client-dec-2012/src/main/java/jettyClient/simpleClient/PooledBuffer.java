@@ -0,0 +1,155 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.simpleClient;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer, like a ByteArrayOutputStream, that is borrowed
+ * from a BufferPool and handed back with release() so that its array is
+ * reused by the next message.
+ * 
+ * The content can be read through views (a read-only ByteBuffer or an
+ * InputStream) without copying it. The views are only valid until the
+ * buffer is released; anything that must outlive the buffer takes a copy
+ * with toByteArray().
+ * 
+ * Not thread-safe.
+ * 
+ * @author carolina
+ * 
+ */
+public class PooledBuffer extends OutputStream {
+
+	private final BufferPool pool;
+	private byte[] bytes;
+	private int count = 0;
+	private boolean released = false;
+
+	PooledBuffer(BufferPool pool, int size) {
+		this.pool = pool;
+		this.bytes = new byte[size];
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(count + 1);
+		bytes[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int offset, int length) {
+		ensureCapacity(count + length);
+		System.arraycopy(b, offset, bytes, count, length);
+		count += length;
+	}
+
+	/**
+	 * Returns the number of bytes written.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the backing array. Only the first size() bytes are content.
+	 * 
+	 * @return
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	/**
+	 * Returns a read-only view of the content.
+	 * 
+	 * @return
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(bytes, 0, count).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns a stream that reads the content.
+	 * 
+	 * @return
+	 */
+	public InputStream asInputStream() {
+		return new ByteArrayInputStream(bytes, 0, count);
+	}
+
+	/**
+	 * Returns a copy of the content.
+	 * 
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, count);
+	}
+
+	/**
+	 * Discard the content and keep the array.
+	 */
+	public void reset() {
+		count = 0;
+	}
+
+	/**
+	 * Hand the buffer back to its pool. The buffer and its views must not be
+	 * used afterwards. Releasing twice does nothing.
+	 */
+	public void release() {
+		if (released)
+			return;
+		released = true;
+		pool.release(this);
+	}
+
+	int capacity() {
+		return bytes.length;
+	}
+
+	/**
+	 * Make room for a number of bytes in an empty buffer, so that writing
+	 * them does not grow the array.
+	 * 
+	 * @param size
+	 */
+	void reserve(int size) {
+		if (size > bytes.length)
+			bytes = new byte[size];
+	}
+
+	/**
+	 * Prepare a pooled buffer for its next user.
+	 */
+	void reuse() {
+		count = 0;
+		released = false;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (needed > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+	}
+}
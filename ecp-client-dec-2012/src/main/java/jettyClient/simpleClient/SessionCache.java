@@ -0,0 +1,214 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jettyClient.paosClient.CookieJar;
+import jettyClient.parser.ExtractField;
+
+import org.joda.time.DateTime;
+import org.opensaml.soap.soap11.Body;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SessionCache remembers completed logins, keyed by (SP, IdP, principal), so
+ * that a repeated resource fetch can reuse the SP session instead of running
+ * the SP -> IdP -> SP flow again.
+ * 
+ * A session expires at the earliest NotOnOrAfter or SessionNotOnOrAfter of
+ * the assertions in the IdP Response, or after a default lifetime if the
+ * Response gives no expiry. When the cache is full, the least recently used
+ * session is evicted.
+ * 
+ * A session is bound to the password of its login, and is only returned to
+ * a caller that gives the same password. A wrong password is a miss.
+ * 
+ * The cache lives in memory, in one Client. It is shared by the logins of a
+ * daemon or a batch; a one-shot command line login never finds a session.
+ * 
+ * @author carolina
+ * 
+ */
+public class SessionCache {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final long defaultLifetimeMillis;
+
+	// Access ordered, so the eldest entry is the least recently used.
+	private final LinkedHashMap<Key, CachedSession> sessions;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxSessions
+	 *            The maximum number of sessions to keep.
+	 * @param defaultLifetimeMillis
+	 *            Lifetime of a session whose Response gives no expiry.
+	 */
+	public SessionCache(final int maxSessions, long defaultLifetimeMillis) {
+
+		this.defaultLifetimeMillis = defaultLifetimeMillis;
+
+		sessions = new LinkedHashMap<Key, CachedSession>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, CachedSession> eldest) {
+				return size() > maxSessions;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached session for an SP, IdP and principal, or null if
+	 * there is none, it has expired or it was created with another password.
+	 * 
+	 * @param spURL
+	 * @param idpID
+	 * @param principal
+	 * @param credentials
+	 *            password
+	 * @return
+	 */
+	public CachedSession get(URL spURL, String idpID, String principal,
+			String credentials) {
+
+		Key key = new Key(spURL, idpID, principal);
+		CachedSession session = null;
+
+		synchronized (this) {
+			session = sessions.get(key);
+
+			if (session != null
+					&& session.isExpired(System.currentTimeMillis())) {
+				logger.debug("Cached session for " + principal
+						+ " has expired.");
+				sessions.remove(key);
+				return null;
+			}
+		}
+
+		// Hashing is slow on purpose, so it is done outside the lock.
+		if (session != null && !session.matches(credentials)) {
+			logger.debug("Credentials for " + principal
+					+ " do not match the cached session.");
+			return null;
+		}
+		return session;
+	}
+
+	/**
+	 * Cache the outcome of a login. The expiry is read from the assertions in
+	 * the IdP Response.
+	 * 
+	 * The session keeps copies of the cookie jar and the Body, so both can
+	 * still be used by the login that made them.
+	 * 
+	 * @param spURL
+	 * @param idpID
+	 * @param principal
+	 * @param credentials
+	 *            The password of the login.
+	 * @param cookieJar
+	 *            Cookies of the login session.
+	 * @param response
+	 *            The Body of the IdP Response.
+	 */
+	public void put(URL spURL, String idpID, String principal,
+			String credentials, CookieJar cookieJar, Body response) {
+
+		DateTime expiry = ExtractField.extractSessionExpiry(response);
+		long expiresAt = expiry != null ? expiry.getMillis() : System
+				.currentTimeMillis() + defaultLifetimeMillis;
+
+		CachedSession session = new CachedSession(credentials, cookieJar,
+				response, expiresAt);
+
+		synchronized (this) {
+			sessions.put(new Key(spURL, idpID, principal), session);
+		}
+	}
+
+	/**
+	 * Forget the session for an SP, IdP and principal.
+	 * 
+	 * @param spURL
+	 * @param idpID
+	 * @param principal
+	 */
+	public synchronized void remove(URL spURL, String idpID, String principal) {
+		sessions.remove(new Key(spURL, idpID, principal));
+	}
+
+	/**
+	 * Returns the number of cached sessions, including expired ones that have
+	 * not been looked up since they expired.
+	 * 
+	 * @return
+	 */
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Cache key: (SP, IdP, principal).
+	 */
+	private static final class Key {
+
+		private final String sp;
+		private final String idp;
+		private final String principal;
+
+		Key(URL spURL, String idpID, String principal) {
+			// Compare URLs as strings; URL.equals resolves host names.
+			this.sp = spURL.toString();
+			this.idp = idpID;
+			this.principal = principal;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return sp.equals(other.sp) && equal(idp, other.idp)
+					&& equal(principal, other.principal);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = sp.hashCode();
+			hash = 31 * hash + (idp == null ? 0 : idp.hashCode());
+			hash = 31 * hash + (principal == null ? 0 : principal.hashCode());
+			return hash;
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
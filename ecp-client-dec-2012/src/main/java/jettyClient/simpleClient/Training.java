@@ -0,0 +1,104 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Training runs the login that the class data sharing archive is trained
+ * with, from inside the shaded jar.
+ * 
+ * The login itself is run by jettyClient.mock.Warmup against the mock SP
+ * and IdP, which are test classes. They are loaded by a class loader of
+ * their own instead of being put on the class path, so the application class
+ * path of the training run is the jar alone. A client started with -jar
+ * simpleClient.jar then has the same class path, which HotSpot requires
+ * before it maps the archive. Classes of the jar used by the login are
+ * loaded by the application class loader and archived.
+ * 
+ * Usage: java -XX:ArchiveClassesAtExit=simpleClient.jsa -cp simpleClient.jar
+ * jettyClient.simpleClient.Training <test classes>
+ * 
+ * @author carolina
+ * 
+ */
+public class Training {
+
+	// Get the client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String driver = "jettyClient.mock.Warmup";
+
+	/**
+	 * Run the training login.
+	 * 
+	 * @param args
+	 *            The folder or jar with the test classes.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length != 1) {
+			System.out.println("Usage: Training <test classes>");
+			return;
+		}
+
+		URLClassLoader loader = trainingLoader(args[0]);
+
+		if (loader == null)
+			return;
+
+		try {
+			Method main = loader.loadClass(driver).getMethod("main",
+					String[].class);
+			main.invoke(null, (Object) new String[0]);
+		} catch (ReflectiveOperationException e) {
+			logger.error("Could not run " + driver + ": " + e);
+		}
+	}
+
+	/**
+	 * Create a class loader for the test classes. Classes of the jar are
+	 * still loaded by the application class loader, its parent.
+	 * 
+	 * @param location
+	 * @return The class loader, or null if the location is not valid.
+	 */
+	private static URLClassLoader trainingLoader(String location) {
+
+		File file = new File(location);
+
+		if (!file.exists()) {
+			logger.error("No test classes in " + location + ".");
+			return null;
+		}
+
+		try {
+			return new URLClassLoader(new URL[] { file.toURI().toURL() },
+					Training.class.getClassLoader());
+		} catch (MalformedURLException e) {
+			logger.error("Invalid test class location " + location + ".");
+		}
+		return null;
+	}
+}
@@ -0,0 +1,183 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A Span is one timed phase of a login: an exchange with the SP or IdP,
+ * its connect, request, server and response phases, or the client's own
+ * XML work (parse, build).
+ * 
+ * Spans are created from their parent with child() and closed with end().
+ * When tracing is off the spans are Span.none(), which records nothing, so
+ * callers do not have to check whether a login is traced.
+ * 
+ * @author carolina
+ * 
+ */
+public class Span {
+
+	// Span kinds, as numbered by OpenTelemetry.
+	public final static int kindInternal = 1;
+	public final static int kindClient = 3;
+
+	private final static Span none = new Span(null, null, null, kindInternal,
+			0);
+
+	private final Trace trace;
+	private final String name;
+	private final String spanId;
+	private final String parentSpanId;
+	private final int kind;
+	private final long startNanos;
+	private long endNanos = 0;
+	private String error = null;
+	private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+	Span(Trace trace, String name, String parentSpanId, int kind,
+			long startNanos) {
+		this.trace = trace;
+		this.name = name;
+		this.spanId = trace != null ? Trace.randomId(8) : null;
+		this.parentSpanId = parentSpanId;
+		this.kind = kind;
+		this.startNanos = startNanos;
+	}
+
+	/**
+	 * Returns a span that records nothing, used when a login is not traced.
+	 * 
+	 * @return
+	 */
+	public static Span none() {
+		return none;
+	}
+
+	/**
+	 * Start a child span now.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Span child(String name) {
+		return child(name, kindInternal);
+	}
+
+	/**
+	 * Start a child span of the given kind now.
+	 * 
+	 * @param name
+	 * @param kind
+	 *            kindInternal or kindClient
+	 * @return
+	 */
+	public Span child(String name, int kind) {
+		if (trace == null)
+			return this;
+
+		Span span = new Span(trace, name, spanId, kind, System.nanoTime());
+		trace.add(span);
+		return span;
+	}
+
+	/**
+	 * Add a child span that has already ended, from System.nanoTime() values.
+	 * Used for phases that are only known once they are over.
+	 * 
+	 * @param name
+	 * @param startNanos
+	 * @param endNanos
+	 * @return The child span, to add attributes to.
+	 */
+	public Span child(String name, long startNanos, long endNanos) {
+		if (trace == null)
+			return this;
+
+		Span span = new Span(trace, name, spanId, kindInternal, startNanos);
+		span.endNanos = endNanos;
+		trace.add(span);
+		return span;
+	}
+
+	public synchronized void setAttribute(String key, Object value) {
+		if (trace != null && value != null)
+			attributes.put(key, value);
+	}
+
+	/**
+	 * Mark the span as failed.
+	 * 
+	 * @param message
+	 */
+	public synchronized void setError(String message) {
+		if (trace != null)
+			error = message;
+	}
+
+	/**
+	 * End the span. Ending the root span of a trace exports the trace.
+	 */
+	public void end() {
+		if (trace == null)
+			return;
+
+		synchronized (this) {
+			if (endNanos != 0)
+				return;
+			endNanos = System.nanoTime();
+		}
+
+		if (parentSpanId == null)
+			trace.export();
+	}
+
+	/* Getters, used by the exporter */
+
+	String getName() {
+		return name;
+	}
+
+	String getSpanId() {
+		return spanId;
+	}
+
+	String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	int getKind() {
+		return kind;
+	}
+
+	long getStartNanos() {
+		return startNanos;
+	}
+
+	synchronized long getEndNanos() {
+		return endNanos;
+	}
+
+	synchronized String getError() {
+		return error;
+	}
+
+	synchronized Map<String, Object> getAttributes() {
+		return new LinkedHashMap<String, Object>(attributes);
+	}
+}
@@ -0,0 +1,106 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Trace holds the spans of one login. Spans are added from the calling
+ * thread and from the HttpClient threads, and the trace is exported by
+ * TraceExporter when its root span ends.
+ * 
+ * Span times are taken with System.nanoTime() and converted to wall clock
+ * time from the moment the trace started, so that phases of a few
+ * microseconds are still measured correctly.
+ * 
+ * @author carolina
+ * 
+ */
+public class Trace {
+
+	private final String traceId = randomId(16);
+	private final long startEpochNanos = System.currentTimeMillis() * 1000000L;
+	private final long startNanos = System.nanoTime();
+
+	private final List<Span> spans = new ArrayList<Span>();
+	private final Span root;
+
+	private Trace(String name) {
+		root = new Span(this, name, null, Span.kindInternal, startNanos);
+		spans.add(root);
+	}
+
+	/**
+	 * Start a trace, and return its root span. Returns Span.none() if
+	 * tracing is off.
+	 * 
+	 * @param name
+	 * @param enabled
+	 * @return
+	 */
+	public static Span start(String name, boolean enabled) {
+		if (!enabled)
+			return Span.none();
+		return new Trace(name).root;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * Returns the wall clock time of a System.nanoTime() value, in nanoseconds
+	 * since the epoch.
+	 * 
+	 * @param nanos
+	 * @return
+	 */
+	long toEpochNanos(long nanos) {
+		return startEpochNanos + (nanos - startNanos);
+	}
+
+	synchronized void add(Span span) {
+		spans.add(span);
+	}
+
+	synchronized List<Span> getSpans() {
+		return new ArrayList<Span>(spans);
+	}
+
+	void export() {
+		TraceExporter.export(this);
+	}
+
+	/**
+	 * Returns a random id of the given number of bytes, as hex.
+	 * 
+	 * @param bytes
+	 * @return
+	 */
+	static String randomId(int bytes) {
+
+		StringBuilder id = new StringBuilder(bytes * 2);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (int i = 0; i < bytes; i++)
+			id.append(String.format("%02x", random.nextInt(256)));
+
+		return id.toString();
+	}
+}
@@ -0,0 +1,216 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.tracing;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TraceExporter appends finished traces to ClientConfiguration.traceFile in
+ * the OpenTelemetry protocol JSON encoding (an ExportTraceServiceRequest per
+ * line), which the OpenTelemetry Collector can read with its otlpjsonfile
+ * receiver.
+ * 
+ * @author carolina
+ * 
+ */
+public class TraceExporter {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String scopeName = "jettyClient";
+
+	/**
+	 * Append a trace to the trace file.
+	 * 
+	 * @param trace
+	 */
+	static void export(Trace trace) {
+
+		byte[] line = (toJson(trace) + "\n").getBytes(StandardCharsets.UTF_8);
+
+		// One write per trace, so that lines from parallel logins are not mixed.
+		synchronized (TraceExporter.class) {
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(ClientConfiguration.traceFile, true);
+				out.write(line);
+			} catch (IOException e) {
+				logger.info("Could not write trace to "
+						+ ClientConfiguration.traceFile + "\n" + e);
+			} finally {
+				close(out);
+			}
+		}
+	}
+
+	/**
+	 * Encode a trace as an OTLP ExportTraceServiceRequest.
+	 * 
+	 * @param trace
+	 * @return
+	 */
+	static String toJson(Trace trace) {
+
+		List<Span> spans = trace.getSpans();
+		long rootEnd = spans.get(0).getEndNanos();
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+		attribute(json, "service.name", ClientConfiguration.traceServiceName);
+		json.append("]},\"scopeSpans\":[{\"scope\":{\"name\":");
+		string(json, scopeName);
+		json.append("},\"spans\":[");
+
+		for (int i = 0; i < spans.size(); i++) {
+			Span span = spans.get(i);
+
+			// A span left open (e.g. an exchange that never completed) ends
+			// with the login.
+			long end = span.getEndNanos() != 0 ? span.getEndNanos() : rootEnd;
+
+			if (i > 0)
+				json.append(',');
+
+			json.append("{\"traceId\":");
+			string(json, trace.getTraceId());
+			json.append(",\"spanId\":");
+			string(json, span.getSpanId());
+			if (span.getParentSpanId() != null) {
+				json.append(",\"parentSpanId\":");
+				string(json, span.getParentSpanId());
+			}
+			json.append(",\"name\":");
+			string(json, span.getName());
+			json.append(",\"kind\":").append(span.getKind());
+			json.append(",\"startTimeUnixNano\":\"")
+					.append(trace.toEpochNanos(span.getStartNanos()))
+					.append('"');
+			json.append(",\"endTimeUnixNano\":\"")
+					.append(trace.toEpochNanos(end)).append('"');
+
+			json.append(",\"attributes\":[");
+			boolean first = true;
+			for (Map.Entry<String, Object> attribute : span.getAttributes()
+					.entrySet()) {
+				if (!first)
+					json.append(',');
+				first = false;
+				attribute(json, attribute.getKey(), attribute.getValue());
+			}
+			json.append(']');
+
+			// Status code 2 = ERROR. Spans without errors leave it unset.
+			if (span.getError() != null) {
+				json.append(",\"status\":{\"code\":2,\"message\":");
+				string(json, span.getError());
+				json.append('}');
+			}
+			json.append('}');
+		}
+
+		json.append("]}]}]}");
+		return json.toString();
+	}
+
+	/**
+	 * Write a key/value attribute. Numbers and booleans keep their type,
+	 * anything else is written as a string.
+	 * 
+	 * @param json
+	 * @param key
+	 * @param value
+	 */
+	private static void attribute(StringBuilder json, String key, Object value) {
+
+		json.append("{\"key\":");
+		string(json, key);
+		json.append(",\"value\":{");
+
+		if (value instanceof Boolean) {
+			json.append("\"boolValue\":").append(value);
+		} else if (value instanceof Integer || value instanceof Long) {
+			json.append("\"intValue\":\"").append(value).append('"');
+		} else if (value instanceof Double || value instanceof Float) {
+			json.append("\"doubleValue\":").append(value);
+		} else {
+			json.append("\"stringValue\":");
+			string(json, String.valueOf(value));
+		}
+		json.append("}}");
+	}
+
+	/**
+	 * Write a quoted, escaped JSON string.
+	 * 
+	 * @param json
+	 * @param value
+	 */
+	private static void string(StringBuilder json, String value) {
+
+		json.append('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					json.append(String.format("\\u%04x", (int) c));
+				else
+					json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	private static void close(OutputStream out) {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			logger.debug("Could not close the trace file.");
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.EnvelopeHandling;
+
+import java.nio.charset.StandardCharsets;
+
+import jettyClient.parser.HeaderFields;
+import jettyClient.parser.HeaderScanner;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RelayEnvelopeTest {
+
+	private final static String declaration = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+	private final static String envelopeStart = "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">";
+
+	private final static String header = "<S:Header>"
+			+ "<paos:Request xmlns:paos=\"urn:liberty:paos:2003-08\""
+			+ " responseConsumerURL=\"https://sp.example.org/ECP\""
+			+ " service=\"urn:oasis:names:tc:SAML:2.0:profiles:SSO:ecp\"/>"
+			+ "</S:Header>";
+
+	@Test
+	public void slicesBodyWithMarkupInCommentsAndCdata() {
+		String body = "<S:Body><!-- </S:Body> <S:Body> -->"
+				+ "<samlp:AuthnRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+				+ " ID=\"_1\"><![CDATA[</S:Body>]]></samlp:AuthnRequest>"
+				+ "</S:Body>";
+
+		assertRelayedBody(declaration + envelopeStart + header + body
+				+ "<!-- </S:Body> --></S:Envelope>", body);
+	}
+
+	@Test
+	public void slicesEmptyBody() {
+		assertRelayedBody(envelopeStart + header + "<S:Body/></S:Envelope>",
+				"<S:Body/>");
+		assertRelayedBody(envelopeStart + "<S:Body ></S:Body></S:Envelope>",
+				"<S:Body ></S:Body>");
+	}
+
+	@Test
+	public void slicesBodyAfterMultibyteCharacters() {
+		String body = "<S:Body a=\"\u00e9\">\u20ac \ud83d\ude00\r\n<x>\u00e5</x>\r\n</S:Body >";
+
+		assertRelayedBody("\ufeff" + declaration + "\r\n" + envelopeStart
+				+ "<!-- \u00e4\u00f6 \ud83d\ude00 -->\r\n" + header + "\r\n"
+				+ body + "\r\n</S:Envelope>", body);
+	}
+
+	@Test
+	public void relaysWithPaosResponseHeader() {
+		String body = "<S:Body><x/></S:Body>";
+		byte[] message = bytes(envelopeStart + header + body + "</S:Envelope>");
+
+		String relayed = string(RelayEnvelope.createSpResponseEnvelope(
+				message, HeaderScanner.scan(message)));
+
+		Assert.assertTrue(relayed.startsWith(declaration + envelopeStart
+				+ "<S:Header><paos:Response "));
+		Assert.assertTrue(relayed.endsWith("</S:Header>" + body
+				+ "</S:Envelope>"));
+	}
+
+	@Test
+	public void refusesMessagesWithoutBody() {
+		byte[] message = bytes(envelopeStart + header + "</S:Envelope>");
+
+		Assert.assertNull(RelayEnvelope.createIdpEnvelope(message,
+				HeaderScanner.scan(message)));
+		Assert.assertNull(RelayEnvelope.createIdpEnvelope(message,
+				new HeaderFields()));
+	}
+
+	/**
+	 * Relay a message to the IdP and check that its Body is copied byte for
+	 * byte.
+	 * 
+	 * @param message
+	 * @param body
+	 */
+	private static void assertRelayedBody(String message, String body) {
+		byte[] bytes = bytes(message);
+		HeaderFields fields = HeaderScanner.scan(bytes);
+
+		Assert.assertNotNull(fields);
+		Assert.assertEquals(string(bytes, fields.getBodyStart(),
+				fields.getBodyEnd()), body);
+
+		byte[] relayed = RelayEnvelope.createIdpEnvelope(bytes, fields);
+
+		Assert.assertEquals(string(relayed), declaration + envelopeStart
+				+ body + "</S:Envelope>");
+	}
+
+	private static byte[] bytes(String message) {
+		return message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String string(byte[] bytes) {
+		return string(bytes, 0, bytes.length);
+	}
+
+	private static String string(byte[] bytes, int start, int end) {
+		return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,76 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.capture;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CapturePolicyTest {
+
+	private final CapturePolicy policy = new CapturePolicy(1, 10,
+			new String[] { "NameID", "SignatureValue", "AttributeValue" });
+
+	private final static String saml = " xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\"";
+
+	@Test
+	public void redactsText() {
+		Assert.assertEquals(policy.redact("<Subject" + saml
+				+ "><saml:NameID Format=\"f\">alice</saml:NameID></Subject>"),
+				"<Subject" + saml
+						+ "><saml:NameID Format=\"f\">[redacted]</saml:NameID></Subject>");
+	}
+
+	@Test
+	public void redactsChildElementsCommentsAndCdata() {
+		String redacted = policy.redact("<a" + saml
+				+ "><saml:AttributeValue><!-- alice --><b>alice</b>"
+				+ "<![CDATA[alice]]><AttributeValue>alice</AttributeValue>"
+				+ "</saml:AttributeValue><c>kept</c></a>");
+
+		Assert.assertFalse(redacted.contains("alice"), redacted);
+		Assert.assertEquals(redacted, "<a" + saml
+				+ "><saml:AttributeValue>[redacted]</saml:AttributeValue>"
+				+ "<c>kept</c></a>");
+	}
+
+	@Test
+	public void redactsUnprefixedAndEmptyElements() {
+		Assert.assertEquals(policy.redact("<a><SignatureValue>abc</SignatureValue>"
+				+ "<NameID/></a>"), "<a><SignatureValue>[redacted]</SignatureValue>"
+				+ "<NameID>[redacted]</NameID></a>");
+	}
+
+	@Test
+	public void keepsOtherContent() {
+		String message = "<a><!-- note --><b x=\"1\">text &amp; more</b></a>";
+
+		Assert.assertEquals(policy.redact(message), message);
+	}
+
+	@Test
+	public void dropsMessagesThatAreNotXml() {
+		String redacted = policy.redact("<a><NameID>alice</a>");
+
+		Assert.assertFalse(redacted.contains("alice"), redacted);
+	}
+
+	@Test
+	public void keepsMessagesWithNothingToRedact() {
+		CapturePolicy none = new CapturePolicy(1, 10, new String[0]);
+
+		Assert.assertEquals(none.redact("not xml"), "not xml");
+	}
+}
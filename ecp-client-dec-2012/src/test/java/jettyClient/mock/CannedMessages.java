@@ -0,0 +1,298 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import jettyClient.parser.ParseHelper;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * CannedMessages builds the messages the mock SP and IdP send: an ECP
+ * AuthnRequest envelope as an SP sends it, and a signed ECP Response envelope
+ * as an IdP sends it.
+ * 
+ * The messages follow what a Shibboleth SP and IdP put on the wire. Their
+ * size is set by a count: the number of IDPEntries the SP lists, and the
+ * number of attributes in the IdP assertion. The assertion is signed with an
+ * enveloped RSA-SHA256 signature over a freshly generated key.
+ * 
+ * @author carolina
+ * 
+ */
+public class CannedMessages {
+
+	public final static String spEntityID = "https://sp.example.org/shibboleth";
+	public final static String idpEntityID = "https://idp.example.org/idp/shibboleth";
+	public final static String idpName = "Example IdP";
+
+	private final static String actor = "http://schemas.xmlsoap.org/soap/actor/next";
+	private final static String rsaSha256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+
+	private final static String requestID = "_ec1025e786e6fff206ef63897d2d0ad6";
+
+	/**
+	 * Return the IDPEntry of the canned IdP, located at the given URL.
+	 * 
+	 * @param idpURL
+	 * @return
+	 */
+	public static IDPEntry idpEntry(String idpURL) {
+
+		IDPEntry entry = (IDPEntry) ParseHelper
+				.buildObject(IDPEntry.DEFAULT_ELEMENT_NAME);
+
+		entry.setProviderID(idpEntityID);
+		entry.setName(idpName);
+		entry.setLoc(idpURL);
+
+		return entry;
+	}
+
+	/**
+	 * Return an SP envelope with a PAOS Request and an ECP Request header, and
+	 * an AuthnRequest body. The IDPList holds idpEntries entries, the last of
+	 * which is the canned IdP.
+	 * 
+	 * @param assertionConsumerURL
+	 *            Where the client should send the IdP response.
+	 * @param idpURL
+	 *            The ECP endpoint of the canned IdP.
+	 * @param idpEntries
+	 * @return
+	 */
+	public static byte[] spAuthnRequest(String assertionConsumerURL,
+			String idpURL, int idpEntries) {
+
+		StringBuilder idpList = new StringBuilder();
+		for (int i = 0; i < idpEntries - 1; i++) {
+			idpList.append("<samlp:IDPEntry ProviderID=\"https://idp")
+					.append(i).append(".example.org/idp/shibboleth\"")
+					.append(" Name=\"Other IdP ").append(i).append("\"")
+					.append(" Loc=\"https://idp").append(i)
+					.append(".example.org/idp/profile/SAML2/SOAP/ECP\"/>");
+		}
+		idpList.append("<samlp:IDPEntry ProviderID=\"").append(idpEntityID)
+				.append("\" Name=\"").append(idpName).append("\" Loc=\"")
+				.append(idpURL).append("\"/>");
+
+		String message = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<S:Envelope xmlns:S=\"" + SAMLConstants.SOAP11ENV_NS + "\">"
+				+ "<S:Header>"
+				+ "<paos:Request xmlns:paos=\"" + SAMLConstants.PAOS_NS + "\""
+				+ " S:actor=\"" + actor + "\" S:mustUnderstand=\"1\""
+				+ " responseConsumerURL=\"" + assertionConsumerURL + "\""
+				+ " service=\"" + SAMLConstants.SAML20ECP_NS + "\"/>"
+				+ "<ecp:Request xmlns:ecp=\"" + SAMLConstants.SAML20ECP_NS + "\""
+				+ " IsPassive=\"0\" ProviderName=\"Example SP\""
+				+ " S:actor=\"" + actor + "\" S:mustUnderstand=\"1\">"
+				+ "<saml:Issuer xmlns:saml=\"" + SAMLConstants.SAML20_NS + "\">"
+				+ spEntityID + "</saml:Issuer>"
+				+ "<samlp:IDPList xmlns:samlp=\"" + SAMLConstants.SAML20P_NS + "\">"
+				+ idpList
+				+ "</samlp:IDPList>"
+				+ "</ecp:Request>"
+				+ "</S:Header>"
+				+ "<S:Body>"
+				+ "<samlp:AuthnRequest xmlns:samlp=\"" + SAMLConstants.SAML20P_NS + "\""
+				+ " AssertionConsumerServiceURL=\"" + assertionConsumerURL + "\""
+				+ " ID=\"" + requestID + "\""
+				+ " IssueInstant=\"" + new DateTime(DateTimeZone.UTC) + "\""
+				+ " ProtocolBinding=\"" + SAMLConstants.SAML2_PAOS_BINDING_URI + "\""
+				+ " Version=\"2.0\">"
+				+ "<saml:Issuer xmlns:saml=\"" + SAMLConstants.SAML20_NS + "\">"
+				+ spEntityID + "</saml:Issuer>"
+				+ "<samlp:NameIDPolicy AllowCreate=\"1\"/>"
+				+ "</samlp:AuthnRequest>"
+				+ "</S:Body>"
+				+ "</S:Envelope>";
+
+		return message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return an IdP envelope with an ECP Response header and a Response body
+	 * that carries a signed assertion with the given number of attributes.
+	 * The assertion is valid for five minutes, the session for eight hours.
+	 * 
+	 * @param assertionConsumerURL
+	 *            Where the client should send the response.
+	 * @param attributes
+	 * @return
+	 * @throws Exception
+	 *             If the assertion could not be signed.
+	 */
+	public static byte[] idpResponse(String assertionConsumerURL,
+			int attributes) throws Exception {
+
+		DateTime now = new DateTime(DateTimeZone.UTC);
+		DateTime notOnOrAfter = now.plusMinutes(5);
+
+		StringBuilder statement = new StringBuilder();
+		for (int i = 0; i < attributes; i++) {
+			statement.append("<saml2:Attribute FriendlyName=\"attribute").append(i)
+					.append("\" Name=\"urn:oid:1.3.6.1.4.1.5923.1.1.1.").append(i)
+					.append("\" NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:uri\">")
+					.append("<saml2:AttributeValue xmlns:xs=\"http://www.w3.org/2001/XMLSchema\"")
+					.append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+					.append(" xsi:type=\"xs:string\">value-").append(i)
+					.append("@example.org</saml2:AttributeValue>")
+					.append("</saml2:Attribute>");
+		}
+
+		String message = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<soap11:Envelope xmlns:soap11=\"" + SAMLConstants.SOAP11ENV_NS + "\">"
+				+ "<soap11:Header>"
+				+ "<ecp:Response xmlns:ecp=\"" + SAMLConstants.SAML20ECP_NS + "\""
+				+ " AssertionConsumerServiceURL=\"" + assertionConsumerURL + "\""
+				+ " soap11:actor=\"" + actor + "\" soap11:mustUnderstand=\"1\"/>"
+				+ "</soap11:Header>"
+				+ "<soap11:Body>"
+				+ "<saml2p:Response xmlns:saml2p=\"" + SAMLConstants.SAML20P_NS + "\""
+				+ " Destination=\"" + assertionConsumerURL + "\""
+				+ " ID=\"_4b2f7f1a3c6e8d9f0a1b2c3d4e5f6a7b\""
+				+ " InResponseTo=\"" + requestID + "\""
+				+ " IssueInstant=\"" + now + "\" Version=\"2.0\">"
+				+ "<saml2:Issuer xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\">"
+				+ idpEntityID + "</saml2:Issuer>"
+				+ "<saml2p:Status><saml2p:StatusCode Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/></saml2p:Status>"
+				+ "<saml2:Assertion xmlns:saml2=\"" + SAMLConstants.SAML20_NS + "\""
+				+ " ID=\"_9a8b7c6d5e4f3a2b1c0d9e8f7a6b5c4d\""
+				+ " IssueInstant=\"" + now + "\" Version=\"2.0\">"
+				+ "<saml2:Issuer>" + idpEntityID + "</saml2:Issuer>"
+				+ "<saml2:Subject>"
+				+ "<saml2:NameID Format=\"urn:oasis:names:tc:SAML:2.0:nameid-format:transient\""
+				+ " NameQualifier=\"" + idpEntityID + "\" SPNameQualifier=\"" + spEntityID + "\">"
+				+ "_2b6c1f0e9d8a7b6c5d4e3f2a1b0c9d8e</saml2:NameID>"
+				+ "<saml2:SubjectConfirmation Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\">"
+				+ "<saml2:SubjectConfirmationData Address=\"192.0.2.10\""
+				+ " InResponseTo=\"" + requestID + "\""
+				+ " NotOnOrAfter=\"" + notOnOrAfter + "\""
+				+ " Recipient=\"" + assertionConsumerURL + "\"/>"
+				+ "</saml2:SubjectConfirmation>"
+				+ "</saml2:Subject>"
+				+ "<saml2:Conditions NotBefore=\"" + now + "\" NotOnOrAfter=\"" + notOnOrAfter + "\">"
+				+ "<saml2:AudienceRestriction><saml2:Audience>" + spEntityID
+				+ "</saml2:Audience></saml2:AudienceRestriction>"
+				+ "</saml2:Conditions>"
+				+ "<saml2:AuthnStatement AuthnInstant=\"" + now + "\""
+				+ " SessionIndex=\"_5c4d3e2f1a0b9c8d7e6f5a4b3c2d1e0f\""
+				+ " SessionNotOnOrAfter=\"" + now.plusHours(8) + "\">"
+				+ "<saml2:SubjectLocality Address=\"192.0.2.10\"/>"
+				+ "<saml2:AuthnContext><saml2:AuthnContextClassRef>"
+				+ "urn:oasis:names:tc:SAML:2.0:ac:classes:PasswordProtectedTransport"
+				+ "</saml2:AuthnContextClassRef></saml2:AuthnContext>"
+				+ "</saml2:AuthnStatement>"
+				+ "<saml2:AttributeStatement>" + statement + "</saml2:AttributeStatement>"
+				+ "</saml2:Assertion>"
+				+ "</saml2p:Response>"
+				+ "</soap11:Body>"
+				+ "</soap11:Envelope>";
+
+		return signAssertion(message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Sign the Assertion in the message with an enveloped signature, placed
+	 * after the assertion Issuer as the schema requires.
+	 * 
+	 * @param message
+	 * @return
+	 * @throws Exception
+	 */
+	private static byte[] signAssertion(byte[] message) throws Exception {
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(
+				new ByteArrayInputStream(message));
+
+		Element assertion = (Element) document.getElementsByTagNameNS(
+				SAMLConstants.SAML20_NS, "Assertion").item(0);
+		assertion.setIdAttributeNS(null, "ID", true);
+
+		Element subject = (Element) assertion.getElementsByTagNameNS(
+				SAMLConstants.SAML20_NS, "Subject").item(0);
+
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+
+		XMLSignatureFactory signatureFactory = XMLSignatureFactory
+				.getInstance("DOM");
+
+		Reference reference = signatureFactory.newReference(
+				"#" + assertion.getAttribute("ID"),
+				signatureFactory.newDigestMethod(DigestMethod.SHA256, null),
+				Arrays.asList(signatureFactory.newTransform(
+						Transform.ENVELOPED, (TransformParameterSpec) null),
+						signatureFactory.newTransform(
+								CanonicalizationMethod.EXCLUSIVE,
+								(TransformParameterSpec) null)), null, null);
+
+		SignedInfo signedInfo = signatureFactory.newSignedInfo(
+				signatureFactory.newCanonicalizationMethod(
+						CanonicalizationMethod.EXCLUSIVE,
+						(C14NMethodParameterSpec) null),
+				signatureFactory.newSignatureMethod(rsaSha256, null),
+				Collections.singletonList(reference));
+
+		KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
+		KeyInfo keyInfo = keyInfoFactory.newKeyInfo(Collections
+				.singletonList(keyInfoFactory.newKeyValue(keyPair.getPublic())));
+
+		DOMSignContext context = new DOMSignContext(keyPair.getPrivate(),
+				assertion, subject);
+		context.setDefaultNamespacePrefix("ds");
+
+		signatureFactory.newXMLSignature(signedInfo, keyInfo).sign(context);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		TransformerFactory.newInstance().newTransformer()
+				.transform(new DOMSource(document), new StreamResult(stream));
+
+		return stream.toByteArray();
+	}
+}
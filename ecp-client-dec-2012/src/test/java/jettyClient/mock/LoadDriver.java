@@ -0,0 +1,154 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import jettyClient.objectProviderRegisterer.ObjectProviderRegisterer;
+import jettyClient.parser.SchemaRegistry;
+import jettyClient.simpleClient.BatchLogin;
+import jettyClient.simpleClient.BatchStats;
+import jettyClient.simpleClient.ClientConfiguration;
+import jettyClient.simpleClient.ConnectionPool;
+import jettyClient.simpleClient.ConnectionStats;
+import jettyClient.simpleClient.LoginJob;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.saml.saml2.core.IDPEntry;
+
+/**
+ * LoadDriver pushes concurrent ECP logins through Connections.accessResource
+ * against a local MockServer, and reports the login latency percentiles.
+ * 
+ * Usage: LoadDriver [logins] [concurrency] [attributes] [warmup logins]
+ * 
+ * The mock lives in the test classes, so run it from the test class path:
+ * mvn test-compile exec:java -Dexec.mainClass=jettyClient.mock.LoadDriver
+ * -Dexec.classpathScope=test
+ * 
+ * @author carolina
+ * 
+ */
+public class LoadDriver {
+
+	private final static String password = "mock-password";
+
+	public static void main(String[] args) throws Exception {
+
+		int logins = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int attributes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int warmup = args.length > 3 ? Integer.parseInt(args[3]) : logins / 10;
+
+		// Initialize the client as Main does.
+		InitializationService.initialize();
+		ObjectProviderRegisterer.register();
+		SchemaRegistry.initialize();
+
+		MockServer server = new MockServer(0, 1, attributes, password);
+		server.start();
+
+		ConnectionPool pool = new ConnectionPool(concurrency,
+				ClientConfiguration.idleTimeout);
+		pool.start();
+		HttpClient httpClient = pool.getHttpClient();
+
+		PrintStream out = System.out;
+
+		try {
+			URL spURL = new URL(server.getResourceURL());
+			IDPEntry idpEntry = server.getIdpEntry();
+
+			// The client prints every message it sends and receives. Keep that
+			// off the console while the logins run.
+			System.setOut(new PrintStream(new OutputStream() {
+				public void write(int b) {
+				}
+
+				public void write(byte[] b, int off, int len) {
+				}
+			}));
+
+			if (warmup > 0)
+				run(httpClient, concurrency, jobs(spURL, idpEntry, warmup));
+
+			BatchStats stats = run(httpClient, concurrency,
+					jobs(spURL, idpEntry, logins));
+
+			System.setOut(out);
+
+			out.println(String.format(
+					"%d logins, %d concurrent, %d attributes per assertion",
+					logins, concurrency, attributes));
+			out.println(String.format(
+					"%d failed, %d ms, %.1f logins/s", stats.getFailed(),
+					stats.getWallTimeMillis(), stats.getThroughput()));
+			out.println(String.format(
+					"latency ms: mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, "
+							+ "p99.9 %.2f, max %d", stats.getMeanLoginMillis(),
+					stats.getPercentileMillis(50),
+					stats.getPercentileMillis(90),
+					stats.getPercentileMillis(99),
+					stats.getPercentileMillis(99.9),
+					stats.getMaxLoginMillis()));
+			out.println(ConnectionStats.summary());
+
+		} finally {
+			System.setOut(out);
+			pool.stop();
+			server.stop();
+		}
+	}
+
+	/**
+	 * Run a batch of logins and return its statistics.
+	 * 
+	 * @param httpClient
+	 * @param concurrency
+	 * @param jobs
+	 * @return
+	 */
+	private static BatchStats run(HttpClient httpClient, int concurrency,
+			List<LoginJob> jobs) {
+		BatchLogin batch = new BatchLogin(httpClient, concurrency);
+		batch.setAllowHttp(true); // The mock server is plain http.
+		batch.run(jobs);
+		return batch.getStats();
+	}
+
+	/**
+	 * Create count login jobs, each with its own principal.
+	 * 
+	 * @param spURL
+	 * @param idpEntry
+	 * @param count
+	 * @return
+	 */
+	private static List<LoginJob> jobs(URL spURL, IDPEntry idpEntry, int count) {
+		List<LoginJob> jobs = new ArrayList<LoginJob>(count);
+
+		for (int i = 0; i < count; i++)
+			jobs.add(new LoginJob(spURL, idpEntry, "user" + i, password));
+
+		return jobs;
+	}
+}
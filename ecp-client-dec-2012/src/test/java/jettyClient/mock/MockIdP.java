@@ -0,0 +1,138 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import jettyClient.parser.HeaderFields;
+import jettyClient.parser.HeaderScanner;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MockIdP stands in for the ECP endpoint of an Identity Provider.
+ * 
+ * An envelope with an AuthnRequest, sent with HTTP BASIC credentials, is
+ * answered with a canned signed Response. Any principal is accepted, as long
+ * as the password matches.
+ * 
+ * @author carolina
+ * 
+ */
+public class MockIdP extends AbstractHandler {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	public final static String ecpPath = "/profile/SAML2/SOAP/ECP";
+
+	private final static QName authnRequest = new QName(
+			SAMLConstants.SAML20P_NS, "AuthnRequest");
+
+	private final String password;
+	private final byte[] cannedResponse;
+
+	/**
+	 * Constructor. Signs the canned Response once.
+	 * 
+	 * @param assertionConsumerURL
+	 *            The absolute URL of the SP assertion consumer.
+	 * @param attributes
+	 *            The number of attributes in the assertion.
+	 * @param password
+	 *            The password every principal logs in with.
+	 * @throws Exception
+	 *             If the Response could not be signed.
+	 */
+	public MockIdP(String assertionConsumerURL, int attributes, String password)
+			throws Exception {
+		this.password = password;
+		this.cannedResponse = CannedMessages.idpResponse(assertionConsumerURL,
+				attributes);
+	}
+
+	public void handle(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+
+		baseRequest.setHandled(true);
+
+		if (!ecpPath.equals(target) || !"POST".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		if (!isAuthenticated(request.getHeader("Authorization"))) {
+			response.setHeader("WWW-Authenticate",
+					"Basic realm=\"IdP Password Authentication\"");
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+
+		HeaderFields fields = HeaderScanner.scan(MockServer.readBody(request));
+
+		if (fields == null
+				|| !authnRequest.equals(fields.getFirstBodyElement())) {
+			logger.debug("The mock IdP did not receive an AuthnRequest.");
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/xml");
+		response.setContentLength(cannedResponse.length);
+		response.getOutputStream().write(cannedResponse);
+	}
+
+	/**
+	 * Check the HTTP BASIC Authorization header.
+	 * 
+	 * @param authorization
+	 * @return True if the header holds a principal and the right password.
+	 */
+	private boolean isAuthenticated(String authorization) {
+
+		if (authorization == null || !authorization.startsWith("Basic "))
+			return false;
+
+		String decoded;
+		try {
+			decoded = new String(Base64.getDecoder().decode(
+					authorization.substring(6).trim()),
+					StandardCharsets.ISO_8859_1);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+
+		int colon = decoded.indexOf(':');
+
+		return colon > 0 && decoded.substring(colon + 1).equals(password);
+	}
+}
@@ -0,0 +1,184 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import jettyClient.parser.HeaderFields;
+import jettyClient.parser.HeaderScanner;
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MockSP stands in for an ECP enabled Service Provider.
+ * 
+ * A PAOS GET request for the resource is answered with a canned AuthnRequest
+ * envelope. The assertion consumer accepts an envelope with a SAML Response,
+ * starts a session and returns the resource. A GET request with a valid
+ * session cookie is answered with the resource.
+ * 
+ * @author carolina
+ * 
+ */
+public class MockSP extends AbstractHandler {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	public final static String resourcePath = "/resource";
+	public final static String assertionConsumerPath = "/Shibboleth.sso/SAML2/ECP";
+
+	private final static String sessionCookie = "_shibsession_mock";
+	private final static String paosContentType = "application/vnd.paos+xml";
+
+	private final static QName responseElement = new QName(
+			SAMLConstants.SAML20P_NS, "Response");
+
+	private final static byte[] resource = "Hello from the mock SP."
+			.getBytes();
+
+	private final byte[] authnRequest;
+
+	// Ids of the sessions started by the assertion consumer.
+	private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param assertionConsumerURL
+	 *            The absolute URL of the assertion consumer.
+	 * @param idpURL
+	 *            The ECP endpoint of the mock IdP.
+	 * @param idpEntries
+	 *            The number of IdPs listed in the AuthnRequest.
+	 */
+	public MockSP(String assertionConsumerURL, String idpURL, int idpEntries) {
+		this.authnRequest = CannedMessages.spAuthnRequest(assertionConsumerURL,
+				idpURL, idpEntries);
+	}
+
+	public void handle(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+
+		baseRequest.setHandled(true);
+
+		if (assertionConsumerPath.equals(target)
+				&& "POST".equals(request.getMethod())) {
+			consumeAssertion(request, response);
+
+		} else if (resourcePath.equals(target)
+				&& "GET".equals(request.getMethod())) {
+			getResource(request, response);
+
+		} else {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	}
+
+	/**
+	 * Return the resource to a client with a session, or an AuthnRequest to
+	 * an ECP client without one.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	private void getResource(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		if (hasSession(request)) {
+			write(response, "text/plain", resource);
+			return;
+		}
+
+		String accept = request.getHeader("Accept");
+
+		if (accept == null || !accept.contains(paosContentType)
+				|| request.getHeader("PAOS") == null) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN,
+					"Only ECP clients are supported.");
+			return;
+		}
+
+		write(response, paosContentType, authnRequest);
+	}
+
+	/**
+	 * Accept an envelope with a Response from the IdP, start a session and
+	 * return the resource.
+	 * 
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	private void consumeAssertion(HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		HeaderFields fields = HeaderScanner.scan(MockServer.readBody(request));
+
+		if (fields == null
+				|| !responseElement.equals(fields.getFirstBodyElement())) {
+			logger.debug("The mock SP did not receive a SAML Response.");
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+
+		String session = UUID.randomUUID().toString();
+		sessions.add(session);
+
+		Cookie cookie = new Cookie(sessionCookie, session);
+		cookie.setPath("/");
+		response.addCookie(cookie);
+
+		write(response, "text/plain", resource);
+	}
+
+	private boolean hasSession(HttpServletRequest request) {
+		Cookie[] cookies = request.getCookies();
+
+		if (cookies != null)
+			for (Cookie cookie : cookies)
+				if (sessionCookie.equals(cookie.getName())
+						&& sessions.contains(cookie.getValue()))
+					return true;
+		return false;
+	}
+
+	private void write(HttpServletResponse response, String contentType,
+			byte[] body) throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(contentType);
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+}
@@ -0,0 +1,158 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import jettyClient.simpleClient.ClientConfiguration;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MockServer runs a mock SP and a mock IdP in one embedded Jetty server on
+ * localhost, so that the whole SP -> ECP -> IdP -> SP flow can be run without
+ * a real Shibboleth deployment.
+ * 
+ * The SP is served under /sp and the IdP under /idp, over plain http.
+ * /stall answers after a delay, without reading the request until then.
+ * 
+ * @author carolina
+ * 
+ */
+public class MockServer {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String host = "127.0.0.1";
+
+	private final Server server = new Server();
+	private final SelectChannelConnector connector = new SelectChannelConnector();
+
+	private final String baseURL;
+
+	/**
+	 * Constructor. Opens the server socket, so that the URLs are known before
+	 * the server is started.
+	 * 
+	 * @param port
+	 *            The port to listen on, or 0 for any free port.
+	 * @param idpEntries
+	 *            The number of IdPs listed in the AuthnRequest.
+	 * @param attributes
+	 *            The number of attributes in the IdP assertion.
+	 * @param password
+	 *            The password every principal logs in with at the IdP.
+	 * @throws Exception
+	 *             If the socket could not be opened or the IdP Response could
+	 *             not be signed.
+	 */
+	public MockServer(int port, int idpEntries, int attributes,
+			String password) throws Exception {
+
+		connector.setHost(host);
+		connector.setPort(port);
+		connector.open();
+		server.addConnector(connector);
+
+		baseURL = "http://" + host + ":" + connector.getLocalPort();
+
+		ContextHandler sp = new ContextHandler("/sp");
+		sp.setHandler(new MockSP(getAssertionConsumerURL(), getIdpURL(),
+				idpEntries));
+
+		ContextHandler idp = new ContextHandler("/idp");
+		idp.setHandler(new MockIdP(getAssertionConsumerURL(), attributes,
+				password));
+
+		ContextHandler stall = new ContextHandler("/stall");
+		stall.setHandler(new MockStall());
+
+		ContextHandlerCollection contexts = new ContextHandlerCollection();
+		contexts.addHandler(sp);
+		contexts.addHandler(idp);
+		contexts.addHandler(stall);
+		server.setHandler(contexts);
+	}
+
+	public void start() throws Exception {
+		server.start();
+		logger.info("Mock SP and IdP listening on " + baseURL);
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+	}
+
+	/* Getters */
+
+	public String getResourceURL() {
+		return baseURL + "/sp" + MockSP.resourcePath;
+	}
+
+	public String getAssertionConsumerURL() {
+		return baseURL + "/sp" + MockSP.assertionConsumerPath;
+	}
+
+	public String getIdpURL() {
+		return baseURL + "/idp" + MockIdP.ecpPath;
+	}
+
+	public String getStallURL() {
+		return baseURL + "/stall";
+	}
+
+	/**
+	 * Returns the IDPEntry a client uses to log in at the mock IdP.
+	 * 
+	 * @return
+	 */
+	public IDPEntry getIdpEntry() {
+		return CannedMessages.idpEntry(getIdpURL());
+	}
+
+	/**
+	 * Read the body of a request.
+	 * 
+	 * @param request
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] readBody(HttpServletRequest request) throws IOException {
+
+		InputStream in = request.getInputStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(
+				request.getContentLength(), 1024));
+		byte[] buffer = new byte[4096];
+
+		for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+			body.write(buffer, 0, n);
+
+		return body.toByteArray();
+	}
+}
@@ -0,0 +1,56 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.mock;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * MockStall stands in for a server that stops reading a request. It waits
+ * before it reads the request body, so a client that sends a large body is
+ * left blocked in the middle of writing it. The body is then read and
+ * answered with an empty 200 response.
+ * 
+ * @author carolina
+ * 
+ */
+public class MockStall extends AbstractHandler {
+
+	// Milliseconds to wait before the request body is read.
+	public final static long stallMillis = 2000;
+
+	public void handle(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+
+		baseRequest.setHandled(true);
+
+		try {
+			Thread.sleep(stallMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		MockServer.readBody(request);
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+}
@@ -0,0 +1,102 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+
+package jettyClient.mock;
+
+import java.net.URL;
+
+import jettyClient.objectProviderRegisterer.MinimalInitializer;
+import jettyClient.objectProviderRegisterer.ObjectProviderRegisterer;
+import jettyClient.simpleClient.ClientConfiguration;
+import jettyClient.simpleClient.ClientOptions;
+import jettyClient.simpleClient.ConnectionPool;
+import jettyClient.simpleClient.Connections;
+
+import org.opensaml.core.config.InitializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warmup runs one complete login against a local MockServer. It loads and
+ * initializes the classes of the whole ECP flow without any network access,
+ * which is what the class data sharing archive is trained with.
+ * 
+ * The appcds profile runs it through jettyClient.simpleClient.Training,
+ * which keeps the test classes off the class path, so that the archive
+ * matches a client started with -jar simpleClient.jar.
+ * 
+ * @author carolina
+ * 
+ */
+public class Warmup {
+
+	// Client logger
+	private final static Logger logger = LoggerFactory
+			.getLogger(ClientConfiguration.logger);
+
+	private final static String password = "warmup";
+
+	/**
+	 * Initialize the client as Main does with -fast, and run the login.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		try {
+			MinimalInitializer.initialize();
+		} catch (InitializationException e) {
+			logger.error("Could not initialize OpenSAML: " + e);
+			return;
+		}
+		ObjectProviderRegisterer.register();
+
+		run();
+	}
+
+	/**
+	 * Run the login. OpenSAML must already be initialized.
+	 */
+	public static void run() {
+
+		MockServer server = null;
+		ConnectionPool pool = new ConnectionPool();
+
+		try {
+			server = new MockServer(0, 1, 1, password);
+			server.start();
+			pool.start();
+
+			ClientOptions options = new ClientOptions();
+			options.setSpURL(new URL(server.getResourceURL()));
+			options.setAllowHttp(true);
+
+			new Connections().accessResource(options, server.getIdpEntry(),
+					pool.getHttpClient(), "warmup", password);
+
+		} catch (Exception e) {
+			logger.error("Warmup login failed: " + e);
+		} finally {
+			pool.stop();
+			try {
+				if (server != null)
+					server.stop();
+			} catch (Exception e) {
+				logger.debug("Could not stop the mock server.");
+			}
+		}
+	}
+}
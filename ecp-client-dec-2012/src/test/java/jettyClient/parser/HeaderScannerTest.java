@@ -0,0 +1,131 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.parser;
+
+import java.nio.charset.StandardCharsets;
+
+import jettyClient.objectProviderRegisterer.MinimalInitializer;
+
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.IDPEntry;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class HeaderScannerTest {
+
+	private final static String spEnvelope = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\""
+			+ " xmlns:paos=\"urn:liberty:paos:2003-08\""
+			+ " xmlns:ecp=\"urn:oasis:names:tc:SAML:2.0:profiles:SSO:ecp\""
+			+ " xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+			+ "<S:Header>"
+			+ "<paos:Request S:actor=\"http://schemas.xmlsoap.org/soap/actor/next\""
+			+ " S:mustUnderstand=\"1\""
+			+ " responseConsumerURL=\"https://sp.example.org/ECP\""
+			+ " service=\"urn:oasis:names:tc:SAML:2.0:profiles:SSO:ecp\"/>"
+			+ "<ecp:Request S:actor=\"http://schemas.xmlsoap.org/soap/actor/next\""
+			+ " S:mustUnderstand=\"1\">"
+			+ "<samlp:IDPList>"
+			+ "<samlp:IDPEntry ProviderID=\"https://idp.example.org/idp\""
+			+ " Name=\"Example IdP\" Loc=\"https://idp.example.org/ECP\"/>"
+			+ "</samlp:IDPList>"
+			+ "</ecp:Request>"
+			+ "</S:Header>"
+			+ "<S:Body>"
+			+ "<samlp:AuthnRequest ID=\"_1\" Version=\"2.0\""
+			+ " IssueInstant=\"2012-12-01T00:00:00Z\"/>"
+			+ "</S:Body>"
+			+ "</S:Envelope>";
+
+	private final static String idpFaultEnvelope = "<soap11:Envelope"
+			+ " xmlns:soap11=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+			+ "<soap11:Header>"
+			+ "<ecp:Response xmlns:ecp=\"urn:oasis:names:tc:SAML:2.0:profiles:SSO:ecp\""
+			+ " soap11:actor=\"http://schemas.xmlsoap.org/soap/actor/next\""
+			+ " soap11:mustUnderstand=\"1\""
+			+ " AssertionConsumerServiceURL=\"https://sp.example.org/ECP\"/>"
+			+ "</soap11:Header>"
+			+ "<soap11:Body>"
+			+ "<soap11:Fault><faultcode>soap11:Client</faultcode>"
+			+ "<faultstring>Denied</faultstring></soap11:Fault>"
+			+ "</soap11:Body>"
+			+ "</soap11:Envelope>";
+
+	@BeforeClass
+	public void initialize() throws Exception {
+		MinimalInitializer.initialize();
+	}
+
+	@Test
+	public void scansSpHeader() {
+		HeaderFields fields = HeaderScanner.scan(bytes(spEnvelope));
+
+		Assert.assertNotNull(fields);
+		Assert.assertEquals(fields.getResponseConsumerURL(),
+				"https://sp.example.org/ECP");
+		Assert.assertEquals(fields.getAssertionConsumerURL(),
+				"https://sp.example.org/ECP");
+		Assert.assertEquals(fields.getIdpEntries().size(), 1);
+
+		IDPEntry entry = fields.getIdpEntries().get(0);
+		Assert.assertEquals(entry.getProviderID(), "https://idp.example.org/idp");
+		Assert.assertEquals(entry.getName(), "Example IdP");
+		Assert.assertEquals(entry.getLoc(), "https://idp.example.org/ECP");
+
+		Assert.assertFalse(fields.isSoapFault());
+		Assert.assertEquals(fields.getFirstBodyElement(),
+				AuthnRequest.DEFAULT_ELEMENT_NAME);
+	}
+
+	@Test
+	public void recordsRelayInformation() {
+		HeaderFields fields = HeaderScanner.scan(bytes(spEnvelope));
+
+		Assert.assertEquals(fields.getEnvelopePrefix(), "S");
+		Assert.assertEquals(fields.getBodyPrefix(), "S");
+		Assert.assertEquals(fields.getEnvelopeNamespaces().get("samlp"),
+				"urn:oasis:names:tc:SAML:2.0:protocol");
+		Assert.assertEquals(fields.getEncoding(), "UTF-8");
+	}
+
+	@Test
+	public void scansIdpHeaderAndFault() {
+		HeaderFields fields = HeaderScanner.scan(bytes(idpFaultEnvelope));
+
+		Assert.assertNotNull(fields);
+		Assert.assertNull(fields.getResponseConsumerURL());
+		Assert.assertEquals(fields.getAssertionConsumerServiceURL(),
+				"https://sp.example.org/ECP");
+		Assert.assertTrue(fields.getIdpEntries().isEmpty());
+		Assert.assertTrue(fields.isSoapFault());
+	}
+
+	@Test
+	public void rejectsOtherRootElements() {
+		Assert.assertNull(HeaderScanner.scan(bytes("<html><body/></html>")));
+	}
+
+	@Test
+	public void rejectsMalformedMessages() {
+		Assert.assertNull(HeaderScanner.scan(bytes("not xml")));
+		Assert.assertNull(HeaderScanner.scan((byte[]) null));
+	}
+
+	private static byte[] bytes(String message) {
+		return message.getBytes(StandardCharsets.UTF_8);
+	}
+}
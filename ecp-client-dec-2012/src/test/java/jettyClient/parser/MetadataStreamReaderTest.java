@@ -0,0 +1,115 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MetadataStreamReaderTest {
+
+	private final static String aggregate = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+			+ idp("https://idp1.example.org/idp", "https://idp1.example.org/ECP")
+			+ "<md:EntityDescriptor entityID=\"https://sp.example.org/sp\">"
+			+ "<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+			+ "<md:AssertionConsumerService index=\"0\""
+			+ " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:PAOS\""
+			+ " Location=\"https://sp.example.org/ECP\"/>"
+			+ "</md:SPSSODescriptor>"
+			+ "</md:EntityDescriptor>"
+			+ "<md:EntityDescriptor entityID=\"https://noecp.example.org/idp\">"
+			+ "<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+			+ "<md:SingleSignOnService"
+			+ " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\""
+			+ " Location=\"https://noecp.example.org/SSO\"/>"
+			+ "</md:IDPSSODescriptor>"
+			+ "</md:EntityDescriptor>"
+			+ "<md:EntitiesDescriptor Name=\"nested\">"
+			+ "<!-- <md:EntityDescriptor entityID=\"https://comment.example.org/idp\"> -->"
+			+ idp("https://idp2.example.org/idp", "https://idp2.example.org/ECP")
+			+ "</md:EntitiesDescriptor>"
+			+ "</md:EntitiesDescriptor>";
+
+	@Test
+	public void readsEndpointsOfAggregate() throws XMLStreamException {
+		List<EcpEndpoint> endpoints = read(aggregate);
+
+		Assert.assertEquals(endpoints.size(), 2);
+		Assert.assertEquals(endpoints.get(0).getEntityID(),
+				"https://idp1.example.org/idp");
+		Assert.assertEquals(endpoints.get(0).getLocation(),
+				"https://idp1.example.org/ECP");
+		Assert.assertEquals(endpoints.get(1).getEntityID(),
+				"https://idp2.example.org/idp");
+		Assert.assertEquals(endpoints.get(1).getLocation(),
+				"https://idp2.example.org/ECP");
+	}
+
+	@Test
+	public void readsSingleEntityDescriptor() throws XMLStreamException {
+		List<EcpEndpoint> endpoints = read(idp("https://idp.example.org/idp",
+				"https://idp.example.org/ECP").replace("<md:EntityDescriptor",
+				"<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""));
+
+		Assert.assertEquals(endpoints.size(), 1);
+		Assert.assertEquals(endpoints.get(0).getEntityID(),
+				"https://idp.example.org/idp");
+	}
+
+	@Test(expectedExceptions = XMLStreamException.class)
+	public void failsOnTruncatedAggregate() throws XMLStreamException {
+		// Cut inside the nested aggregate, after the first IdP is complete.
+		read(aggregate.substring(0, aggregate.indexOf("Name=\"nested\"")));
+	}
+
+	@Test(expectedExceptions = XMLStreamException.class)
+	public void failsOnMalformedMetadata() throws XMLStreamException {
+		read("<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+				+ "<md:EntityDescriptor entityID=\"x\"></md:EntitiesDescriptor>");
+	}
+
+	/**
+	 * An IdP EntityDescriptor with an ECP (SOAP binding) endpoint.
+	 * 
+	 * @param entityID
+	 * @param location
+	 * @return
+	 */
+	private static String idp(String entityID, String location) {
+		return "<md:EntityDescriptor entityID=\"" + entityID + "\">"
+				+ "<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+				+ "<md:SingleSignOnService"
+				+ " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\""
+				+ " Location=\"" + location + "/redirect\"/>"
+				+ "<md:SingleSignOnService"
+				+ " Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:SOAP\""
+				+ " Location=\"" + location + "\"/>"
+				+ "</md:IDPSSODescriptor>"
+				+ "</md:EntityDescriptor>";
+	}
+
+	private static List<EcpEndpoint> read(String metadata)
+			throws XMLStreamException {
+		return MetadataStreamReader.read(new ByteArrayInputStream(metadata
+				.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -0,0 +1,110 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jettyClient.mock.MockServer;
+import jettyClient.mock.MockStall;
+import jettyClient.objectProviderRegisterer.MinimalInitializer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class ClientExchangeReleaseTest {
+
+	// Larger than the socket buffers, so the write blocks on the stalled
+	// server.
+	private final static int largeRequest = 32 * 1024 * 1024;
+
+	private MockServer server;
+	private ConnectionPool connections;
+
+	@BeforeClass
+	public void start() throws Exception {
+		MinimalInitializer.initialize();
+		server = new MockServer(0, 1, 1, "secret");
+		server.start();
+		connections = new ConnectionPool(2, 1000);
+		Assert.assertTrue(connections.start());
+	}
+
+	@AfterClass
+	public void stop() throws Exception {
+		connections.stop();
+		server.stop();
+	}
+
+	@Test
+	public void completedExchangeReturnsBuffers() throws Exception {
+		BufferPool buffers = new BufferPool(4, 1024, largeRequest);
+		ClientExchange exchange = post(buffers, 1024,
+				MockStall.stallMillis * 5);
+
+		exchange.getCompletion().get(30, TimeUnit.SECONDS);
+		exchange.release();
+
+		Assert.assertEquals(buffers.available(), 1);
+	}
+
+	@Test
+	public void expiredExchangeKeepsRequestBufferFromPool() throws Exception {
+		BufferPool buffers = new BufferPool(4, 1024, largeRequest);
+		ClientExchange exchange = post(buffers, largeRequest, 200);
+
+		try {
+			exchange.getCompletion().get(30, TimeUnit.SECONDS);
+			Assert.fail("The exchange did not expire.");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		exchange.release();
+
+		// Jetty may still write from the array, so it must not be reused.
+		Assert.assertEquals(buffers.available(), 0);
+	}
+
+	/**
+	 * Send a POST with a body of the given size from a pooled buffer to the
+	 * stall endpoint of the mock server.
+	 * 
+	 * @param buffers
+	 * @param size
+	 * @param timeout
+	 * @return
+	 * @throws IOException
+	 */
+	private ClientExchange post(BufferPool buffers, int size, long timeout)
+			throws IOException {
+
+		PooledBuffer content = buffers.acquire(size);
+		content.write(new byte[size], 0, size);
+
+		ClientExchange exchange = new ClientExchange();
+		exchange.setMethod("POST");
+		exchange.setURL(server.getStallURL());
+		exchange.setTimeout(timeout);
+		exchange.setRequestContent(content);
+
+		connections.getHttpClient().send(exchange);
+		return exchange;
+	}
+}
@@ -0,0 +1,123 @@
+/* ***************************************************************************
+ * Copyright 2012 Carolina Lindqvist
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * ***************************************************************************/
+package jettyClient.simpleClient;
+
+import java.net.URL;
+
+import jettyClient.EnvelopeHandling.EnvelopeCreator;
+import jettyClient.objectProviderRegisterer.MinimalInitializer;
+import jettyClient.paosClient.CookieJar;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
+import org.opensaml.soap.soap11.Body;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class SessionCacheTest {
+
+	private URL spURL;
+	private final String idpID = "https://idp.example.org/idp/shibboleth";
+
+	@BeforeClass
+	public void initialize() throws Exception {
+		MinimalInitializer.initialize();
+		spURL = new URL("https://sp.example.org/secure");
+	}
+
+	@Test
+	public void returnsSessionForSameCredentials() {
+		SessionCache cache = new SessionCache(10, 60000);
+		cache.put(spURL, idpID, "alice", "secret", jar("abc"), body());
+
+		Assert.assertNotNull(cache.get(spURL, idpID, "alice", "secret"));
+	}
+
+	@Test
+	public void wrongPasswordIsAMiss() {
+		SessionCache cache = new SessionCache(10, 60000);
+		cache.put(spURL, idpID, "alice", "secret", jar("abc"), body());
+
+		Assert.assertNull(cache.get(spURL, idpID, "alice", "guess"));
+		Assert.assertNull(cache.get(spURL, idpID, "alice", ""));
+		Assert.assertNull(cache.get(spURL, idpID, "alice", null));
+
+		// A miss does not evict the session of the real user.
+		Assert.assertNotNull(cache.get(spURL, idpID, "alice", "secret"));
+	}
+
+	@Test
+	public void otherPrincipalIsAMiss() {
+		SessionCache cache = new SessionCache(10, 60000);
+		cache.put(spURL, idpID, "alice", "secret", jar("abc"), body());
+
+		Assert.assertNull(cache.get(spURL, idpID, "bob", "secret"));
+	}
+
+	@Test
+	public void expiredSessionIsAMiss() {
+		SessionCache cache = new SessionCache(10, -1);
+		cache.put(spURL, idpID, "alice", "secret", jar("abc"), body());
+
+		Assert.assertNull(cache.get(spURL, idpID, "alice", "secret"));
+		Assert.assertEquals(cache.size(), 0);
+	}
+
+	@Test
+	public void everyLoginGetsItsOwnCopies() {
+		SessionCache cache = new SessionCache(10, 60000);
+		CookieJar cookieJar = jar("abc");
+		cache.put(spURL, idpID, "alice", "secret", cookieJar, body());
+
+		// Cookies stored by the original login do not reach the cache.
+		cookieJar.storeCookies(spURL, setCookie("other=xyz; Path=/"));
+
+		CachedSession session = cache.get(spURL, idpID, "alice", "secret");
+		CookieJar first = session.getCookieJar();
+		CookieJar second = session.getCookieJar();
+
+		Assert.assertEquals(first.getCookieHeader(spURL), "session=abc");
+		Assert.assertNotSame(first, second);
+
+		first.storeCookies(spURL, setCookie("session=changed; Path=/"));
+		Assert.assertEquals(second.getCookieHeader(spURL), "session=abc");
+
+		Body one = session.getResponse();
+		Body two = session.getResponse();
+
+		Assert.assertNotNull(one);
+		Assert.assertNotSame(one, two);
+		Assert.assertEquals(one.getUnknownXMLObjects().size(), 1);
+	}
+
+	private Body body() {
+		return EnvelopeCreator.createSoapFaultBody("test");
+	}
+
+	private CookieJar jar(String session) {
+		CookieJar cookieJar = new CookieJar();
+		cookieJar.storeCookies(spURL, setCookie("session=" + session
+				+ "; Path=/"));
+		return cookieJar;
+	}
+
+	private HttpFields setCookie(String value) {
+		HttpFields fields = new HttpFields();
+		fields.add(HttpHeaders.SET_COOKIE, value);
+		return fields;
+	}
+}